@@ -0,0 +1,47 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import static com.example.mysqlserverutilbak.mysql.ValidateConfig.*;
+
+/**
+ * 一张 table 的 records 批次大小，取代固定的 LIMIT：
+ * 1. 初始值 = targetBytes / AVG_ROW_LENGTH，information_schema 未统计时为 DBQueryService.LIMIT
+ * 2. 每批次读取后按实际的字节数 / 行数修正平均行长度，窄 table 增大批次减少往返，BLOB / TEXT 宽 table 减小批次限制内存
+ * 3. 读取耗时超过 targetMillis 时按比例减小批次
+ * 每次最多增长一倍，结果限制在 [minRows, maxRows]。同一 table 的多个 range 共用，方法线程安全。
+ */
+public class BatchSizer {
+
+    private final BatchConfig config;
+    // 平均行长度的估计值，<= 0 表示未知
+    private double bytesPerRow;
+    private int batchSize;
+
+    public BatchSizer(BatchConfig config, long avgRowLength) {
+        this.config = config;
+        this.bytesPerRow = avgRowLength;
+        this.batchSize = clamp(avgRowLength > 0 ? config.getTargetBytes() / avgRowLength : DBQueryService.LIMIT);
+    }
+
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    // 一个批次读取完成：rows 行，bytes 字节，耗时 millis
+    public synchronized void record(int rows, long bytes, long millis) {
+        if (rows <= 0) {
+            return;
+        }
+        double observed = (double) bytes / rows;
+        bytesPerRow = bytesPerRow > 0 ? (bytesPerRow + observed) / 2 : observed;
+
+        long next = bytesPerRow > 0 ? (long) (config.getTargetBytes() / bytesPerRow) : config.getMaxRows();
+        if (config.getTargetMillis() > 0 && millis > config.getTargetMillis()) {
+            next = Math.min(next, rows * config.getTargetMillis() / millis);
+        }
+        batchSize = clamp(Math.min(next, batchSize * 2L));
+    }
+
+    private int clamp(long size) {
+        return (int) Math.max(config.getMinRows(), Math.min(size, config.getMaxRows()));
+    }
+}
@@ -0,0 +1,394 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.github.shyiko.mysql.binlog.BinaryLogClient;
+import com.github.shyiko.mysql.binlog.event.DeleteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.EventData;
+import com.github.shyiko.mysql.binlog.event.QueryEventData;
+import com.github.shyiko.mysql.binlog.event.TableMapEventData;
+import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.deserialization.EventDeserializer;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static com.example.mysqlserverutilbak.mysql.DBQueryService.*;
+import static com.example.mysqlserverutilbak.mysql.DifferenceInfo.*;
+import static com.example.mysqlserverutilbak.mysql.Record.*;
+import static com.example.mysqlserverutilbak.mysql.ValidateConfig.*;
+
+/**
+ * [INCREMENTAL] 模式：跟随 source binlog 增量校验，不再每次全量扫描。
+ * 1. 解析 ROWS 事件，按 db.table 记录变更记录的主键 (脏主键)，同一主键再次变更时重新计时
+ * 2. 脏主键经过 graceMillis (复制延迟) 后，按主键批量查询 source / target 对比
+ * 3. 不一致的主键重新等待 graceMillis，连续 recheckRetries 次不一致后登记到 DiffInfoRegistry，
+ *    报告的汇总每 summaryIntervalMillis 追加一次，进程退出时输出最终汇总
+ * binlog 需为 ROW 格式；主键列缺失 (binlog_row_image = MINIMAL 且未包含主键) 的事件忽略。
+ * 主键列与比较规则按 table 缓存，TABLE_MAP 事件的 tableId 或列数变化、以及 DDL 的 QUERY 事件时失效。
+ */
+@Component
+@Slf4j
+public class BinlogIncrementalValidator implements InitializingBean, DisposableBean {
+
+    private static final Set<String> UNSIGNED_BITS_TYPE = ImmutableSet.of("tinyint", "smallint", "mediumint", "int");
+
+    private static final Pattern DDL_PATTERN = Pattern.compile("(ALTER|CREATE|DROP|RENAME|TRUNCATE)\\s", Pattern.CASE_INSENSITIVE);
+
+    private static final Set<String> BINARY_TYPE = ImmutableSet.of("binary", "varbinary", "tinyblob", "blob", "mediumblob", "longblob");
+
+    @Autowired
+    private ValidateConfig config;
+
+    @Autowired
+    private DataSource sourceDataSource;
+
+    @Autowired
+    private DataSource targetDataSource;
+
+    // FULL 模式下不创建
+    @Lazy
+    @Autowired
+    private BinaryLogClient sourceBinlogClient;
+
+    @Autowired
+    private DiffInfoRegistry registry;
+
+    @Autowired
+    private DBQueryService DBQueryService;
+
+    @Autowired
+    private MetadataLoader metadataLoader;
+
+    // binlog tableId -> TableMapEventData
+    private final Map<Long, TableMapEventData> tableMaps = new ConcurrentHashMap<>();
+    // db.table -> 最新的 binlog tableId
+    private final Map<String, Long> tableIds = new ConcurrentHashMap<>();
+    // db -> table -> 主键列，没有主键的 table 为空 list
+    private final Map<String, Map<String, List<ColumnStructure>>> primaryColumnCache = new ConcurrentHashMap<>();
+    // db.table -> 按 source / target 列类型构建的比较规则
+    private final Map<String, RowComparator> rowComparatorCache = new ConcurrentHashMap<>();
+    // db.table -> 脏主键
+    private final Map<String, Map<PrimaryKeys, DirtyKey>> dirtyKeys = new ConcurrentHashMap<>();
+    // db.table -> 已登记的差异
+    private final Map<String, RecordContentDiffInfo> reportedDiffs = Maps.newHashMap();
+    // 上次输出汇总后是否登记了新的差异
+    private final AtomicBoolean summaryPending = new AtomicBoolean();
+    private ScheduledExecutorService rechecker;
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (config.getRunMode() != RunMode.INCREMENTAL) {
+            return;
+        }
+        BinlogConfig binlogConfig = config.getBinlog();
+        EventDeserializer eventDeserializer = new EventDeserializer();
+        eventDeserializer.setCompatibilityMode(EventDeserializer.CompatibilityMode.CHAR_AND_BINARY_AS_BYTE_ARRAY);
+        sourceBinlogClient.setEventDeserializer(eventDeserializer);
+        sourceBinlogClient.setServerId(binlogConfig.getServerId());
+        if (StringUtils.isNotEmpty(binlogConfig.getFilename())) {
+            sourceBinlogClient.setBinlogFilename(binlogConfig.getFilename());
+            sourceBinlogClient.setBinlogPosition(binlogConfig.getPosition());
+        }
+        sourceBinlogClient.registerEventListener(event -> {
+            try {
+                onEvent(event.getData());
+            } catch (Exception e) {
+                log.error("[BinlogIncrementalValidator] handle event fail, event = {}", event, e);
+            }
+        });
+
+        rechecker = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("BinlogRechecker-%d").build());
+        rechecker.scheduleWithFixedDelay(this::recheckDueKeys,
+                binlogConfig.getRecheckIntervalMillis(), binlogConfig.getRecheckIntervalMillis(), TimeUnit.MILLISECONDS);
+        rechecker.scheduleWithFixedDelay(this::printSummary,
+                binlogConfig.getSummaryIntervalMillis(), binlogConfig.getSummaryIntervalMillis(), TimeUnit.MILLISECONDS);
+
+        // connect(timeout) 在独立线程中持续读取 binlog
+        try {
+            sourceBinlogClient.connect(TimeUnit.SECONDS.toMillis(30));
+        } catch (Exception e) {
+            throw new IOException("connect source binlog fail", e);
+        }
+        log.info("[BinlogIncrementalValidator] start from binlog {}:{}", sourceBinlogClient.getBinlogFilename(), sourceBinlogClient.getBinlogPosition());
+    }
+
+    private void onEvent(EventData data) {
+        if (data instanceof TableMapEventData) {
+            onTableMap((TableMapEventData) data);
+        } else if (data instanceof QueryEventData) {
+            String sql = StringUtils.trimToEmpty(((QueryEventData) data).getSql());
+            // DDL 可能跨 db 引用 table，清空全部表结构缓存，之后按需重新加载
+            if (DDL_PATTERN.matcher(sql).lookingAt()) {
+                log.info("[BinlogIncrementalValidator] ddl event, invalidate table structure cache, sql = {}", sql);
+                primaryColumnCache.clear();
+                rowComparatorCache.clear();
+            }
+        } else if (data instanceof WriteRowsEventData) {
+            WriteRowsEventData rows = (WriteRowsEventData) data;
+            markDirty(rows.getTableId(), rows.getIncludedColumns(), rows.getRows());
+        } else if (data instanceof UpdateRowsEventData) {
+            UpdateRowsEventData rows = (UpdateRowsEventData) data;
+            // 主键可能被更新，前后两个主键都需要校验
+            markDirty(rows.getTableId(), rows.getIncludedColumnsBeforeUpdate(), rows.getRows().stream().map(Map.Entry::getKey).collect(Collectors.toList()));
+            markDirty(rows.getTableId(), rows.getIncludedColumns(), rows.getRows().stream().map(Map.Entry::getValue).collect(Collectors.toList()));
+        } else if (data instanceof DeleteRowsEventData) {
+            DeleteRowsEventData rows = (DeleteRowsEventData) data;
+            markDirty(rows.getTableId(), rows.getIncludedColumns(), rows.getRows());
+        }
+    }
+
+    // table 重建或变更表结构后 binlog 分配新的 tableId，列数变化时 rows 事件的列位置也随之变化
+    private void onTableMap(TableMapEventData tableMap) {
+        String dbTableKey = buildKey(tableMap.getDatabase(), tableMap.getTable());
+        TableMapEventData previous = tableMaps.put(tableMap.getTableId(), tableMap);
+        Long previousTableId = tableIds.put(dbTableKey, tableMap.getTableId());
+        boolean changed = previous != null && previous.getColumnTypes().length != tableMap.getColumnTypes().length;
+        if (previousTableId != null && previousTableId != tableMap.getTableId()) {
+            tableMaps.remove(previousTableId);
+            changed = true;
+        }
+        if (changed) {
+            primaryColumnCache.getOrDefault(tableMap.getDatabase(), Collections.emptyMap()).remove(tableMap.getTable());
+            rowComparatorCache.remove(dbTableKey);
+        }
+    }
+
+    private void markDirty(long tableId, BitSet includedColumns, List<Serializable[]> rows) {
+        TableMapEventData tableMap = tableMaps.get(tableId);
+        if (tableMap == null || isExcluded(tableMap.getDatabase(), tableMap.getTable())) {
+            return;
+        }
+        List<ColumnStructure> primaryColStructures = getPrimaryColStructures(tableMap.getDatabase(), tableMap.getTable());
+        if (primaryColStructures.isEmpty()) {
+            return;
+        }
+        long dueMillis = System.currentTimeMillis() + config.getBinlog().getGraceMillis();
+        Map<PrimaryKeys, DirtyKey> tableDirtyKeys = dirtyKeys.computeIfAbsent(buildKey(tableMap.getDatabase(), tableMap.getTable()), key -> new ConcurrentHashMap<>());
+        for (Serializable[] row : rows) {
+            PrimaryKeys primaryKeys = toPrimaryKeys(primaryColStructures, includedColumns, row);
+            if (primaryKeys != null) {
+                tableDirtyKeys.put(primaryKeys, new DirtyKey(dueMillis, 0));
+            }
+        }
+    }
+
+    private boolean isExcluded(String dbName, String tableName) {
+        Set<String> excludeTables = config.getExcludeDBAndTable().getOrDefault(dbName, Collections.emptySet());
+        return config.getExcludeDataBase().contains(dbName) || excludeTables.contains(tableName);
+    }
+
+    private List<ColumnStructure> getPrimaryColStructures(String dbName, String tableName) {
+        Map<String, List<ColumnStructure>> tables = primaryColumnCache.computeIfAbsent(dbName, key -> new ConcurrentHashMap<>());
+        return tables.computeIfAbsent(tableName, key -> metadataLoader.load(sourceDataSource, dbName, tableName).getPrimaryColStructures(dbName, tableName));
+    }
+
+    private RowComparator getRowComparator(String dbName, String tableName) {
+        return rowComparatorCache.computeIfAbsent(buildKey(dbName, tableName), key -> {
+            Set<ColumnStructure> sourceColumns = metadataLoader.load(sourceDataSource, dbName, tableName).getColumns(dbName, tableName);
+            if (sourceColumns == null) {
+                return RowComparator.DEFAULT;
+            }
+            List<ColumnStructure> orderedColumns = sourceColumns.stream().
+                    sorted(Comparator.comparingLong(ColumnStructure::getOrdinalPosition)).
+                    collect(Collectors.toList());
+            // 登记列投影，之后按主键查询的 records 只包含投影内的列
+            ColumnProjection projection = DBQueryService.registerProjection(dbName, tableName, orderedColumns, getPrimaryColStructures(dbName, tableName));
+            return RowComparator.forTable(projection.getColumns(), metadataLoader.load(targetDataSource, dbName, tableName).getColumns(dbName, tableName));
+        });
+    }
+
+    // binlog 的值转换为与 RowBatch 一致的 java 类型：整数为 Long，非 binary 字符串为 String
+    static PrimaryKeys toPrimaryKeys(List<ColumnStructure> primaryColStructures, BitSet includedColumns, Serializable[] row) {
+        List<Pair<Object, ColumnStructure>> primaryColValues = Lists.newArrayListWithCapacity(primaryColStructures.size());
+        for (ColumnStructure column : primaryColStructures) {
+            int position = column.getOrdinalPosition().intValue() - 1;
+            if (!includedColumns.get(position)) {
+                return null;
+            }
+            // row 只包含 includedColumns 中的列
+            Object value = row[includedColumns.get(0, position).cardinality()];
+            if (value instanceof byte[] && !BINARY_TYPE.contains(column.getDataType())) {
+                value = new String((byte[]) value, StandardCharsets.UTF_8);
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                long longValue = ((Number) value).longValue();
+                if (longValue < 0 && StringUtils.containsIgnoreCase(column.getColumnType(), "unsigned") && UNSIGNED_BITS_TYPE.contains(column.getDataType())) {
+                    longValue += 1L << unsignedBits(column.getDataType());
+                }
+                value = longValue;
+            }
+            primaryColValues.add(Pair.of(value, column));
+        }
+        return new PrimaryKeys(primaryColValues);
+    }
+
+    private static int unsignedBits(String dataType) {
+        switch (dataType) {
+            case "tinyint":
+                return 8;
+            case "smallint":
+                return 16;
+            case "mediumint":
+                return 24;
+            default:
+                return 32;
+        }
+    }
+
+    private void recheckDueKeys() {
+        boolean changed = false;
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Map<PrimaryKeys, DirtyKey>> entry : dirtyKeys.entrySet()) {
+            Map<PrimaryKeys, DirtyKey> dueKeys = Maps.newLinkedHashMap();
+            Iterator<Map.Entry<PrimaryKeys, DirtyKey>> iterator = entry.getValue().entrySet().iterator();
+            while (iterator.hasNext() && dueKeys.size() < LIMIT) {
+                Map.Entry<PrimaryKeys, DirtyKey> dirtyKey = iterator.next();
+                if (dirtyKey.getValue().dueMillis <= now) {
+                    // 对比期间同一主键有新的变更时 put 的新值不会被移除
+                    if (entry.getValue().remove(dirtyKey.getKey(), dirtyKey.getValue())) {
+                        dueKeys.put(dirtyKey.getKey(), dirtyKey.getValue());
+                    }
+                }
+            }
+            if (!dueKeys.isEmpty()) {
+                try {
+                    changed |= recheck(entry.getKey(), dueKeys);
+                } catch (Exception e) {
+                    log.error("[BinlogIncrementalValidator] recheck fail, table = {}", entry.getKey(), e);
+                    // 查询失败的主键下次再检查
+                    dueKeys.forEach((key, value) -> entry.getValue().putIfAbsent(key, value));
+                }
+            }
+        }
+        if (changed) {
+            summaryPending.set(true);
+        }
+    }
+
+    // 差异已在登记时写入报告，汇总按 summaryIntervalMillis 追加，期间没有新的差异时不追加
+    private void printSummary() {
+        if (summaryPending.getAndSet(false)) {
+            registry.printAllResult();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (config.getRunMode() != RunMode.INCREMENTAL) {
+            return;
+        }
+        // 等待进行中的复核结束后再输出最终汇总
+        if (rechecker != null) {
+            rechecker.shutdownNow();
+            try {
+                rechecker.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        registry.printCoreResult();
+        registry.printAllResult();
+        registry.closeReports();
+    }
+
+    // 返回是否登记了新的差异
+    private boolean recheck(String dbTableKey, Map<PrimaryKeys, DirtyKey> dueKeys) {
+        ColumnStructure anyColumn = dueKeys.keySet().iterator().next().getPrimaryColValues().get(0).getRight();
+        String dbName = anyColumn.getTableSchema();
+        String tableName = anyColumn.getTableName();
+        List<ColumnStructure> primaryColStructures = getPrimaryColStructures(dbName, tableName);
+        // 先构建 RowComparator，同时登记 records 查询的列投影
+        RowComparator rowComparator = getRowComparator(dbName, tableName);
+
+        RowBatch sourceRecords = DBQueryService.queryRecordsByPrimaryKeys(sourceDataSource, dbName, tableName, primaryColStructures, dueKeys.keySet());
+        RowBatch targetRecords = DBQueryService.queryRecordsByPrimaryKeys(targetDataSource, dbName, tableName, primaryColStructures, dueKeys.keySet());
+        // 每个主键最多一条差异，保留全部差异用于逐条重试
+        RecordContentDiffInfo checkInfo = new RecordContentDiffInfo(dbName, tableName, null, dueKeys.size());
+        checkInfo.mergeRecordDiff(sourceRecords, targetRecords, rowComparator);
+        if (!checkInfo.hasDiff()) {
+            return false;
+        }
+
+        RecordContentDiffInfo confirmed = new RecordContentDiffInfo(dbName, tableName);
+        Map<PrimaryKeys, DirtyKey> tableDirtyKeys = dirtyKeys.get(dbTableKey);
+        long dueMillis = System.currentTimeMillis() + config.getBinlog().getGraceMillis();
+        for (Record record : checkInfo.getRecordsOnlyInSource()) {
+            if (retry(tableDirtyKeys, dueKeys, record, dueMillis)) {
+                confirmed.addSourceOnly(record);
+            }
+        }
+        for (Record record : checkInfo.getRecordsOnlyInTarget()) {
+            if (retry(tableDirtyKeys, dueKeys, record, dueMillis)) {
+                confirmed.addTargetOnly(record);
+            }
+        }
+        for (Pair<Record, Record> pair : checkInfo.getSamePkDiffValues()) {
+            if (retry(tableDirtyKeys, dueKeys, pair.getLeft(), dueMillis)) {
+                confirmed.addSamePkDiff(pair);
+            }
+        }
+        if (!confirmed.hasDiff()) {
+            return false;
+        }
+
+        RecordContentDiffInfo reported = reportedDiffs.computeIfAbsent(dbTableKey, key -> new RecordContentDiffInfo(dbName, tableName));
+        reported.mergeFrom(confirmed);
+        registry.registerDiffInfo(reported);
+        return true;
+    }
+
+    // 未超过重试次数时重新标记为脏主键并返回 false；超过时返回 true，登记为差异
+    private boolean retry(Map<PrimaryKeys, DirtyKey> tableDirtyKeys, Map<PrimaryKeys, DirtyKey> dueKeys, Record record, long dueMillis) {
+        PrimaryKeys primaryKeys = new PrimaryKeys(record.getPrimaryColValues());
+        DirtyKey dirtyKey = dueKeys.get(primaryKeys);
+        int attempts = dirtyKey == null ? 0 : dirtyKey.attempts;
+        if (attempts >= config.getBinlog().getRecheckRetries()) {
+            return true;
+        }
+        // 已有新的变更时以新的变更为准
+        tableDirtyKeys.putIfAbsent(primaryKeys, new DirtyKey(dueMillis, attempts + 1));
+        return false;
+    }
+
+    private String buildKey(String dbName, String tableName) {
+        return dbName + "." + tableName;
+    }
+
+    private static class DirtyKey {
+        private final long dueMillis;
+        private final int attempts;
+
+        DirtyKey(long dueMillis, int attempts) {
+            this.dueMillis = dueMillis;
+            this.attempts = attempts;
+        }
+    }
+}
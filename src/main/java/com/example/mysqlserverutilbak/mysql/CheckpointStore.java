@@ -0,0 +1,468 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONObject;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static com.example.mysqlserverutilbak.mysql.DifferenceInfo.*;
+import static com.example.mysqlserverutilbak.mysql.Record.*;
+import static com.example.mysqlserverutilbak.mysql.ValidateConfig.*;
+
+/**
+ * 全量校验的 checkpoint，追加写入 JSON lines 文件，进程中断后 resume = true 时跳过已完成的工作：
+ * 1. RAW_SOURCE: [DIFF_FROM_TABLE_STRUCTURE] 之后待校验的 db.table，resume 时跳过 1 ~ 3 阶段
+ *    TABLE_COUNT: record count 一致的 table 及其 source record count，resume 时不再 count
+ * 2. DIFF: 已登记的差异，resume 时以 RestoredDiffInfo 重新登记
+ * 3. SPLIT: table 切分的 range，resume 时沿用，保证 range 下标一致
+ * 4. PROGRESS / RANGE_DONE: range 内已对比的最后一个主键，以及自上一条记录以来新发现的差异 record，同一行写入保证一致
+ * 5. TABLE_DONE: table 的全部 range 对比完成且差异已登记
+ * 主键值以 String 存储，读取时按列类型还原后作为 SQL 参数绑定，binary 主键的 table 只记录 TABLE_DONE。
+ */
+@Component
+@Slf4j
+public class CheckpointStore {
+
+    private static final Set<String> BINARY_TYPE = ImmutableSet.of("binary", "varbinary", "tinyblob", "blob", "mediumblob", "longblob");
+
+    @Autowired
+    private ValidateConfig config;
+
+    private BufferedWriter writer;
+    private Map<String, Set<String>> rawSource;
+    private Map<String, Map<String, Long>> sourceCounts;
+    private final Set<String> doneTables = ConcurrentHashMap.newKeySet();
+    private final Map<String, JSONArray> splits = new ConcurrentHashMap<>();
+    private final Map<String, RangeCheckpoint> ranges = new ConcurrentHashMap<>();
+    private final List<DifferenceInfo> restoredDiffs = Lists.newArrayList();
+
+    public boolean isEnabled() {
+        return StringUtils.isNotEmpty(config.getCheckpointFile()) && config.getRunMode() == RunMode.FULL;
+    }
+
+    // resume 时读取已有 checkpoint，否则清空
+    public synchronized void open() {
+        if (!isEnabled()) {
+            return;
+        }
+        Path path = Paths.get(config.getCheckpointFile());
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            if (config.isResume() && Files.exists(path)) {
+                load(path);
+            }
+            if (rawSource == null) {
+                // 1 ~ 4 阶段未完成时从头开始
+                clearRestored();
+                Files.deleteIfExists(path);
+            }
+            writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.error("[CheckpointStore] open checkpoint file fail, file = {}", path, e);
+        }
+        log.info("[CheckpointStore] open {}, resumed = {}, doneTables = {}", path, isResumed(), doneTables.size());
+    }
+
+    public boolean isResumed() {
+        return rawSource != null;
+    }
+
+    // 未完成的 db.table
+    public Map<String, Set<String>> getRawSource() {
+        Map<String, Set<String>> res = new ConcurrentHashMap<>();
+        rawSource.forEach((dbName, tables) -> {
+            Set<String> rawTables = tables.stream().filter(tableName -> !isTableDone(dbName, tableName)).collect(Collectors.toSet());
+            if (!rawTables.isEmpty()) {
+                res.put(dbName, rawTables);
+            }
+        });
+        return res;
+    }
+
+    public Map<String, Map<String, Long>> getSourceCounts() {
+        return sourceCounts;
+    }
+
+    public List<DifferenceInfo> getRestoredDiffs() {
+        return restoredDiffs;
+    }
+
+    public void saveRawSource(Map<String, Set<String>> rawSource) {
+        JSONObject json = newRecord("RAW_SOURCE", null, null);
+        json.put("rawSource", rawSource);
+        append(json);
+    }
+
+    public void saveTableCount(String dbName, String tableName, long sourceCount) {
+        JSONObject json = newRecord("TABLE_COUNT", dbName, tableName);
+        json.put("sourceCount", sourceCount);
+        append(json);
+    }
+
+    public void saveDiff(DifferenceInfo diffInfo) {
+        JSONObject json = newRecord("DIFF", diffInfo.getDbName(), diffInfo.getTableName());
+        json.put("diffType", diffInfo.getDiffType().name());
+        json.put("content", diffInfo.toString());
+        append(json);
+    }
+
+    public boolean isTableDone(String dbName, String tableName) {
+        return doneTables.contains(buildKey(dbName, tableName));
+    }
+
+    public void saveTableDone(String dbName, String tableName) {
+        append(newRecord("TABLE_DONE", dbName, tableName));
+    }
+
+    // 是否可以记录 range 级别的 checkpoint
+    public boolean isRangeCheckpointable(List<ColumnStructure> primaryColStructures) {
+        return isEnabled() && primaryColStructures.stream().noneMatch(column -> BINARY_TYPE.contains(column.getDataType()));
+    }
+
+    // 上次运行记录的切分结果，不存在时返回 null
+    public List<PkRange> getSplit(String dbName, String tableName, List<ColumnStructure> primaryColStructures) {
+        JSONArray json = splits.get(buildKey(dbName, tableName));
+        if (json == null) {
+            return null;
+        }
+        List<PkRange> res = Lists.newArrayList();
+        for (int i = 0; i < json.size(); i++) {
+            JSONArray bounds = json.getJSONArray(i);
+            res.add(new PkRange(toPrimaryKeys(bounds.getJSONArray(0), primaryColStructures), toPrimaryKeys(bounds.getJSONArray(1), primaryColStructures)));
+        }
+        return res;
+    }
+
+    public void saveSplit(String dbName, String tableName, List<PkRange> pkRanges) {
+        JSONObject json = newRecord("SPLIT", dbName, tableName);
+        JSONArray rangesJson = new JSONArray();
+        for (PkRange range : pkRanges) {
+            JSONArray bounds = new JSONArray();
+            bounds.add(toJson(range.getLower()));
+            bounds.add(toJson(range.getUpper()));
+            rangesJson.add(bounds);
+        }
+        json.put("ranges", rangesJson);
+        append(json);
+    }
+
+    // 上次运行是否记录了 table 的 range 进度，有进度时已发现的差异主键仍在 DiffSink 文件中
+    public boolean hasRangeProgress(String dbName, String tableName) {
+        String prefix = buildKey(dbName, tableName) + "#";
+        return isResumed() && ranges.keySet().stream().anyMatch(key -> key.startsWith(prefix));
+    }
+
+    public RangeCheckpoint getRangeCheckpoint(String dbName, String tableName, int rangeIndex) {
+        RangeCheckpoint checkpoint = ranges.remove(rangeKey(dbName, tableName, rangeIndex));
+        return checkpoint == null ? new RangeCheckpoint(dbName, tableName, rangeIndex) : checkpoint;
+    }
+
+    /**
+     * 记录 range 的进度与 diffInfo 中尚未记录的差异 record。
+     * done = false 时按 checkpointIntervalMillis 节流；中断后从 lastPk 继续，节流期间的差异会被重新发现。
+     */
+    public void saveProgress(RangeCheckpoint checkpoint, PrimaryKeys lastPk, RecordContentDiffInfo diffInfo, boolean done) {
+        if (!isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (!done && now - checkpoint.lastSaveMillis < config.getCheckpointIntervalMillis()) {
+            return;
+        }
+        JSONObject json = newRecord(done ? "RANGE_DONE" : "PROGRESS", checkpoint.dbName, checkpoint.tableName);
+        json.put("range", checkpoint.rangeIndex);
+        json.put("lastPk", toJson(lastPk));
+        json.put("outOfLimit", checkpoint.outOfLimit);
+        json.put("sourceOnly", toJson(diffInfo.getRecordsOnlyInSource().subList(checkpoint.savedSourceOnly, diffInfo.getRecordsOnlyInSource().size())));
+        json.put("targetOnly", toJson(diffInfo.getRecordsOnlyInTarget().subList(checkpoint.savedTargetOnly, diffInfo.getRecordsOnlyInTarget().size())));
+        JSONArray samePk = new JSONArray();
+        for (Pair<Record, Record> pair : diffInfo.getSamePkDiffValues().subList(checkpoint.savedSamePk, diffInfo.getSamePkDiffValues().size())) {
+            samePk.add(toJson(Lists.newArrayList(pair.getLeft(), pair.getRight())));
+        }
+        json.put("samePk", samePk);
+        // 样本之外的差异只记录条数，主键已写入 DiffSink
+        json.put("sourceOnlyCount", diffInfo.getSourceOnlyCount() - checkpoint.savedSourceOnlyCount);
+        json.put("targetOnlyCount", diffInfo.getTargetOnlyCount() - checkpoint.savedTargetOnlyCount);
+        json.put("samePkCount", diffInfo.getSamePkDiffCount() - checkpoint.savedSamePkCount);
+        append(json);
+
+        checkpoint.savedSourceOnly = diffInfo.getRecordsOnlyInSource().size();
+        checkpoint.savedTargetOnly = diffInfo.getRecordsOnlyInTarget().size();
+        checkpoint.savedSamePk = diffInfo.getSamePkDiffValues().size();
+        checkpoint.savedSourceOnlyCount = diffInfo.getSourceOnlyCount();
+        checkpoint.savedTargetOnlyCount = diffInfo.getTargetOnlyCount();
+        checkpoint.savedSamePkCount = diffInfo.getSamePkDiffCount();
+        checkpoint.lastSaveMillis = now;
+    }
+
+    private JSONObject newRecord(String type, String dbName, String tableName) {
+        JSONObject json = new JSONObject(true);
+        json.put("type", type);
+        json.put("dbName", dbName);
+        json.put("tableName", tableName);
+        return json;
+    }
+
+    private synchronized void append(JSONObject json) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(json.toJSONString());
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            log.error("[CheckpointStore] append checkpoint fail, type = {}", json.getString("type"), e);
+        }
+    }
+
+    private void load(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject json;
+                try {
+                    json = JSON.parseObject(line);
+                } catch (JSONException e) {
+                    // 中断时写入一半的最后一行
+                    log.warn("[CheckpointStore] skip broken line, line = {}", line);
+                    continue;
+                }
+                if (json != null) {
+                    restore(json);
+                }
+            }
+        }
+    }
+
+    private void restore(JSONObject json) {
+        String dbName = json.getString("dbName");
+        String tableName = json.getString("tableName");
+        switch (json.getString("type")) {
+            case "RAW_SOURCE":
+                rawSource = Maps.newHashMap();
+                json.getJSONObject("rawSource").forEach((db, tables) -> rawSource.put(db, Sets.newHashSet(((JSONArray) tables).toJavaList(String.class))));
+                sourceCounts = Maps.newHashMap();
+                break;
+            case "TABLE_COUNT":
+                sourceCounts.computeIfAbsent(dbName, key -> Maps.newHashMap()).put(tableName, json.getLong("sourceCount"));
+                break;
+            case "DIFF":
+                restoredDiffs.add(new RestoredDiffInfo(dbName, tableName, DiffType.valueOf(json.getString("diffType")), json.getString("content")));
+                break;
+            case "SPLIT":
+                splits.put(buildKey(dbName, tableName), json.getJSONArray("ranges"));
+                break;
+            case "PROGRESS":
+            case "RANGE_DONE":
+                int rangeIndex = json.getIntValue("range");
+                RangeCheckpoint checkpoint = ranges.computeIfAbsent(rangeKey(dbName, tableName, rangeIndex), key -> new RangeCheckpoint(dbName, tableName, rangeIndex));
+                checkpoint.done = "RANGE_DONE".equals(json.getString("type"));
+                checkpoint.outOfLimit = json.getBooleanValue("outOfLimit");
+                if (json.getJSONArray("lastPk") != null) {
+                    checkpoint.lastPk = json.getJSONArray("lastPk").toJavaList(String.class);
+                }
+                List<Record> sourceOnly = toRecords(json.getJSONArray("sourceOnly"));
+                List<Record> targetOnly = toRecords(json.getJSONArray("targetOnly"));
+                JSONArray samePk = json.getJSONArray("samePk");
+                sourceOnly.forEach(checkpoint.restoredDiff::addSourceOnly);
+                targetOnly.forEach(checkpoint.restoredDiff::addTargetOnly);
+                for (int i = 0; i < samePk.size(); i++) {
+                    List<Record> pair = toRecords(samePk.getJSONArray(i));
+                    checkpoint.restoredDiff.addSamePkDiff(Pair.of(pair.get(0), pair.get(1)));
+                }
+                checkpoint.restoredDiff.addCounts(
+                        Math.max(json.getLongValue("sourceOnlyCount") - sourceOnly.size(), 0),
+                        Math.max(json.getLongValue("targetOnlyCount") - targetOnly.size(), 0),
+                        Math.max(json.getLongValue("samePkCount") - samePk.size(), 0));
+                break;
+            case "TABLE_DONE":
+                doneTables.add(buildKey(dbName, tableName));
+                break;
+            default:
+                log.warn("[CheckpointStore] unknown checkpoint type, json = {}", json);
+        }
+    }
+
+    private void clearRestored() {
+        rawSource = null;
+        sourceCounts = null;
+        doneTables.clear();
+        splits.clear();
+        ranges.clear();
+        restoredDiffs.clear();
+    }
+
+    private String rangeKey(String dbName, String tableName, int rangeIndex) {
+        return buildKey(dbName, tableName) + "#" + rangeIndex;
+    }
+
+    private JSONArray toJson(PrimaryKeys primaryKeys) {
+        if (primaryKeys == null) {
+            return null;
+        }
+        JSONArray json = new JSONArray();
+        primaryKeys.getValues().forEach(value -> json.add(value == null ? null : String.valueOf(value)));
+        return json;
+    }
+
+    private PrimaryKeys toPrimaryKeys(JSONArray json, List<ColumnStructure> primaryColStructures) {
+        if (json == null) {
+            return null;
+        }
+        List<Pair<Object, ColumnStructure>> primaryColValues = Lists.newArrayList();
+        for (int i = 0; i < primaryColStructures.size(); i++) {
+            primaryColValues.add(Pair.of(toPrimaryValue(json.getString(i), primaryColStructures.get(i)), primaryColStructures.get(i)));
+        }
+        return new PrimaryKeys(primaryColValues);
+    }
+
+    // 按列类型还原为与 RowBatch 一致的 java 类型，避免以 String 绑定时与数值列按 DOUBLE 比较丢失精度
+    static Object toPrimaryValue(String value, ColumnStructure column) {
+        if (value == null) {
+            return null;
+        }
+        switch (column.getDataType()) {
+            case "tinyint":
+            case "smallint":
+            case "mediumint":
+            case "int":
+            case "integer":
+                return Long.valueOf(value);
+            case "bigint":
+                // bigint unsigned 可能超出 long 范围
+                return StringUtils.containsIgnoreCase(column.getColumnType(), "unsigned") ? new BigInteger(value) : (Object) Long.valueOf(value);
+            case "decimal":
+            case "numeric":
+                return new BigDecimal(value);
+            case "float":
+                return Float.valueOf(value);
+            case "double":
+            case "real":
+                return Double.valueOf(value);
+            default:
+                return value;
+        }
+    }
+
+    // 差异 record 只用于输出，值以 String 存储
+    private JSONArray toJson(List<Record> records) {
+        JSONArray json = new JSONArray();
+        for (Record record : records) {
+            JSONObject recordJson = new JSONObject(true);
+            recordJson.put("pkNames", record.getPrimaryColValues().stream().map(pair -> pair.getRight().getColumnName()).collect(Collectors.toList()));
+            recordJson.put("pkValues", record.getPrimaryColValues().stream().map(pair -> String.valueOf(pair.getLeft())).collect(Collectors.toList()));
+            recordJson.put("values", record.getColumnValues().stream().map(value -> value == null ? null : String.valueOf(value)).collect(Collectors.toList()));
+            json.add(recordJson);
+        }
+        return json;
+    }
+
+    private List<Record> toRecords(JSONArray json) {
+        if (json == null) {
+            return Collections.emptyList();
+        }
+        List<Record> records = Lists.newArrayList();
+        for (int i = 0; i < json.size(); i++) {
+            JSONObject recordJson = json.getJSONObject(i);
+            List<String> pkNames = recordJson.getJSONArray("pkNames").toJavaList(String.class);
+            List<String> pkValues = recordJson.getJSONArray("pkValues").toJavaList(String.class);
+            List<Pair<Object, ColumnStructure>> primaryColValues = Lists.newArrayList();
+            for (int j = 0; j < pkNames.size(); j++) {
+                ColumnStructure column = new ColumnStructure();
+                column.setColumnName(pkNames.get(j));
+                column.setColumnKey(ColumnStructure.columnKey.PRI.name());
+                primaryColValues.add(Pair.of(pkValues.get(j), column));
+            }
+            Record record = new Record();
+            record.setColumnValues(Lists.newArrayList(recordJson.getJSONArray("values")));
+            record.setPrimaryColValues(primaryColValues);
+            records.add(record);
+        }
+        return records;
+    }
+
+    // 单个 range 的 checkpoint 状态
+    public static class RangeCheckpoint {
+        private final String dbName;
+        private final String tableName;
+        private final int rangeIndex;
+        private boolean done;
+        private boolean outOfLimit;
+        private List<String> lastPk;
+        private final RecordContentDiffInfo restoredDiff;
+        // diffInfo 中已写入 checkpoint 的 record 数
+        private int savedSourceOnly;
+        private int savedTargetOnly;
+        private int savedSamePk;
+        // diffInfo 中已写入 checkpoint 的差异条数
+        private long savedSourceOnlyCount;
+        private long savedTargetOnlyCount;
+        private long savedSamePkCount;
+        private long lastSaveMillis;
+
+        RangeCheckpoint(String dbName, String tableName, int rangeIndex) {
+            this.dbName = dbName;
+            this.tableName = tableName;
+            this.rangeIndex = rangeIndex;
+            this.restoredDiff = new RecordContentDiffInfo(dbName, tableName);
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public boolean isOutOfLimit() {
+            return outOfLimit;
+        }
+
+        public void setOutOfLimit(boolean outOfLimit) {
+            this.outOfLimit = outOfLimit;
+        }
+
+        // 上次运行已完成的部分发现的差异
+        public RecordContentDiffInfo getRestoredDiff() {
+            return restoredDiff;
+        }
+
+        // 继续对比的起点，不存在时返回 range 本身
+        public PkRange resumeRange(PkRange range, List<ColumnStructure> primaryColStructures) {
+            if (lastPk == null) {
+                return range;
+            }
+            List<Pair<Object, ColumnStructure>> primaryColValues = Lists.newArrayList();
+            for (int i = 0; i < primaryColStructures.size(); i++) {
+                primaryColValues.add(Pair.of(toPrimaryValue(lastPk.get(i), primaryColStructures.get(i)), primaryColStructures.get(i)));
+            }
+            return new PkRange(new PrimaryKeys(primaryColValues), range.getUpper());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.example.mysqlserverutilbak.mysql.DBQueryService.*;
+import static com.example.mysqlserverutilbak.mysql.DifferenceInfo.*;
+import static com.example.mysqlserverutilbak.mysql.Record.*;
+
+/**
+ * [CHECKSUM] 模式的 record content 对比：
+ * 1. 按 source 主键顺序把 range 切分为 checksumChunkSize 条记录的 chunk，最后一个 chunk 右侧以 range 为边界，覆盖 target 多出的记录
+ * 2. source / target 并发在服务端计算 chunk 的 COUNT(*) + BIT_XOR(CRC32(row))，一致则跳过
+ * 3. 不一致时二分 chunk，直到记录数不超过 table 的批次大小，再拉取两侧 records 对比
+ * 每个 chunk 对比完成后以 chunk 右边界回调 progress。
+ */
+@Component
+@Slf4j
+public class ChecksumRecordComparator {
+
+    @Autowired
+    private ValidateConfig config;
+
+    @Autowired
+    private DataSource sourceDataSource;
+
+    @Autowired
+    private DataSource targetDataSource;
+
+    @Autowired
+    private DBQueryService DBQueryService;
+
+    public void compare(String dbName, String tableName, List<ColumnStructure> columns, List<ColumnStructure> primaryColStructures, PkRange range, BatchSizer batchSizer,
+                        RowComparator rowComparator, RecordContentDiffInfo diffInfo, Consumer<PrimaryKeys> progress) {
+        PrimaryKeys lower = range.getLower();
+        int chunkNum = 0;
+        while (!diffInfo.isFull()) {
+            PrimaryKeys upper = DBQueryService.queryChunkBoundary(sourceDataSource, dbName, tableName, primaryColStructures,
+                    new PkRange(lower, range.getUpper()), config.getChecksumChunkSize());
+            compareChunk(dbName, tableName, columns, primaryColStructures, new PkRange(lower, upper == null ? range.getUpper() : upper), batchSizer, rowComparator, diffInfo);
+            chunkNum++;
+            if (upper == null) {
+                break;
+            }
+            progress.accept(upper);
+            lower = upper;
+        }
+        log.info("[CHECKSUM] compare finish, dbName = {}, tableName = {}, range = {}, chunkNum = {}", dbName, tableName, range, chunkNum);
+    }
+
+    private void compareChunk(String dbName, String tableName, List<ColumnStructure> columns, List<ColumnStructure> primaryColStructures, PkRange range, BatchSizer batchSizer,
+                             RowComparator rowComparator, RecordContentDiffInfo diffInfo) {
+        Pair<ChunkChecksum, ChunkChecksum> checksums = queryInParallel(
+                () -> DBQueryService.queryChunkChecksum(sourceDataSource, dbName, tableName, columns, primaryColStructures, range),
+                () -> DBQueryService.queryChunkChecksum(targetDataSource, dbName, tableName, columns, primaryColStructures, range));
+        ChunkChecksum sourceChecksum = checksums.getLeft();
+        ChunkChecksum targetChecksum = checksums.getRight();
+        if (sourceChecksum.equals(targetChecksum)) {
+            return;
+        }
+
+        long maxCount = Math.max(sourceChecksum.getTotalCount(), targetChecksum.getTotalCount());
+        // 从记录较多的一侧取中点，保证二分后两个子 chunk 都严格变小
+        PrimaryKeys middle = null;
+        if (maxCount > batchSizer.getBatchSize()) {
+            DataSource largerDataSource = sourceChecksum.getTotalCount() >= targetChecksum.getTotalCount() ? sourceDataSource : targetDataSource;
+            middle = DBQueryService.queryChunkBoundary(largerDataSource, dbName, tableName, primaryColStructures, range, maxCount / 2);
+        }
+
+        if (middle == null) {
+            long start = System.currentTimeMillis();
+            Pair<RowBatch, RowBatch> records = queryInParallel(
+                    () -> DBQueryService.queryRecordsInRange(sourceDataSource, dbName, tableName, primaryColStructures, range, 0),
+                    () -> DBQueryService.queryRecordsInRange(targetDataSource, dbName, tableName, primaryColStructures, range, 0));
+            batchSizer.record(records.getLeft().size(), records.getLeft().getByteSize(), System.currentTimeMillis() - start);
+            diffInfo.mergeRecordDiff(records.getLeft(), records.getRight(), rowComparator);
+            return;
+        }
+
+        log.debug("[CHECKSUM] chunk checksum differ, bisect range = {}, dbName = {}, tableName = {}", range, dbName, tableName);
+        compareChunk(dbName, tableName, columns, primaryColStructures, new PkRange(range.getLower(), middle), batchSizer, rowComparator, diffInfo);
+        if (!diffInfo.isFull()) {
+            compareChunk(dbName, tableName, columns, primaryColStructures, new PkRange(middle, range.getUpper()), batchSizer, rowComparator, diffInfo);
+        }
+    }
+}
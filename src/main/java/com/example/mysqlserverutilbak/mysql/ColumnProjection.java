@@ -0,0 +1,99 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.example.mysqlserverutilbak.mysql.ValidateConfig.*;
+
+/**
+ * 一张 table 的 records 查询列投影，按 ValidateConfig.columnFilters 构建一次，取代 SELECT *：
+ * 1. includeColumns 非空时只查询其中的列；excludeColumns 中的列不查询，如 gmt_modified 等两侧合理不同的列
+ * 2. hashColumns 中的列查询服务端计算的 MD5(col)，大 TEXT / BLOB 列每行只传输 32 个字符
+ * 3. 主键列始终按原值查询，keyset 分页与 target 按主键查询依赖主键的原值
+ * 列保持 ORDINAL_POSITION 顺序，没有配置的 table 仍为 SELECT *。
+ */
+public class ColumnProjection {
+
+    // hash 列投影后的 DATA_TYPE，RowComparator 对未知类型按默认规则比较，MD5 值区分大小写
+    static final String HASH_DATA_TYPE = "md5";
+
+    private final String selectList;
+    // 与 selectList 顺序一致的列，hash 列的 DATA_TYPE 为 HASH_DATA_TYPE
+    private final List<ColumnStructure> columns;
+
+    private ColumnProjection(String selectList, List<ColumnStructure> columns) {
+        this.selectList = selectList;
+        this.columns = columns;
+    }
+
+    // orderedColumns 按 ORDINAL_POSITION 排序
+    public static ColumnProjection of(ColumnFilter filter, List<ColumnStructure> orderedColumns, List<ColumnStructure> primaryColStructures) {
+        Set<String> include = filter == null ? null : filter.getIncludeColumns();
+        Set<String> exclude = filter == null ? null : filter.getExcludeColumns();
+        Set<String> hash = filter == null ? null : filter.getHashColumns();
+        if (isEmpty(include) && isEmpty(exclude) && isEmpty(hash)) {
+            return new ColumnProjection("*", orderedColumns);
+        }
+        include = include == null ? Collections.emptySet() : include;
+        exclude = exclude == null ? Collections.emptySet() : exclude;
+        hash = hash == null ? Collections.emptySet() : hash;
+        Set<String> primaryNames = primaryColStructures.stream().map(ColumnStructure::getColumnName).collect(Collectors.toSet());
+
+        List<String> selects = Lists.newArrayList();
+        List<ColumnStructure> columns = Lists.newArrayList();
+        for (ColumnStructure column : orderedColumns) {
+            String name = column.getColumnName();
+            String quoted = "`" + name + "`";
+            if (primaryNames.contains(name)) {
+                selects.add(quoted);
+                columns.add(column);
+                continue;
+            }
+            // hash 列视为已包含
+            if (exclude.contains(name) || !include.isEmpty() && !include.contains(name) && !hash.contains(name)) {
+                continue;
+            }
+            if (hash.contains(name)) {
+                selects.add("MD5(" + quoted + ") AS " + quoted);
+                columns.add(hashed(column));
+            } else {
+                selects.add(quoted);
+                columns.add(column);
+            }
+        }
+        return new ColumnProjection(String.join(",", selects), columns);
+    }
+
+    private static boolean isEmpty(Set<String> columns) {
+        return columns == null || columns.isEmpty();
+    }
+
+    private static ColumnStructure hashed(ColumnStructure column) {
+        ColumnStructure hashed = new ColumnStructure();
+        hashed.setTableSchema(column.getTableSchema());
+        hashed.setTableName(column.getTableName());
+        hashed.setColumnName(column.getColumnName());
+        hashed.setIsNullable(column.getIsNullable());
+        hashed.setOrdinalPosition(column.getOrdinalPosition());
+        hashed.setDataType(HASH_DATA_TYPE);
+        return hashed;
+    }
+
+    // SELECT 与 FROM 之间的列表
+    public String getSelectList() {
+        return selectList;
+    }
+
+    public List<ColumnStructure> getColumns() {
+        return columns;
+    }
+
+    // 查询全部列，CHECKSUM TABLE 与 records 对比的结果一致
+    public boolean isAll() {
+        return "*".equals(selectList);
+    }
+}
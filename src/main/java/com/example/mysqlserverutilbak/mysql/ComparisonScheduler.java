@@ -0,0 +1,125 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * record content 对比阶段的调度器，替代 LinkedBlockingDeque 的 ThreadPoolExecutor：
+ * 1. 待执行任务按估算耗时 (record count × 平均行长度) 从大到小执行，大 table 最先开始，避免最后才开始的大 table 拖长尾部
+ * 2. 同一 db 下同时执行的任务数不超过 maxTasksPerDatabase，空闲 worker 跳过已达上限的 db，取下一个任务
+ * 3. 大 table 由 TableSplitter 切分出的 range 任务继承 table 的耗时估算，空闲 worker 优先领取大 table 剩余的 range
+ */
+@Slf4j
+public class ComparisonScheduler {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final TreeSet<Task> pending = new TreeSet<>(Comparator.comparingLong((Task task) -> -task.cost).thenComparingLong(task -> task.seq));
+    private final Map<String, Integer> runningPerDatabase = Maps.newHashMap();
+    private final AtomicLong seq = new AtomicLong();
+    private final int maxTasksPerDatabase;
+    private volatile boolean shutdown;
+
+    public ComparisonScheduler(int threadNum, int maxTasksPerDatabase, ThreadFactory threadFactory) {
+        this.maxTasksPerDatabase = maxTasksPerDatabase <= 0 ? Integer.MAX_VALUE : maxTasksPerDatabase;
+        for (int i = 0; i < threadNum; i++) {
+            threadFactory.newThread(this::work).start();
+        }
+    }
+
+    // cost 越大越先执行，cost 相同时按提交顺序
+    public void submit(String dbName, long cost, Runnable runnable) {
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new IllegalStateException("scheduler is shutdown");
+            }
+            pending.add(new Task(dbName, cost, seq.getAndIncrement(), runnable));
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 不再接受新任务，已提交的任务执行完成后 worker 退出
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        Task task;
+        while ((task = take()) != null) {
+            try {
+                task.runnable.run();
+            } catch (Throwable e) {
+                log.error("[ComparisonScheduler] task fail, dbName = {}", task.dbName, e);
+            } finally {
+                release(task);
+            }
+        }
+    }
+
+    private Task take() {
+        lock.lock();
+        try {
+            while (true) {
+                Iterator<Task> iterator = pending.iterator();
+                while (iterator.hasNext()) {
+                    Task task = iterator.next();
+                    int running = runningPerDatabase.getOrDefault(task.dbName, 0);
+                    if (running < maxTasksPerDatabase) {
+                        iterator.remove();
+                        runningPerDatabase.put(task.dbName, running + 1);
+                        return task;
+                    }
+                }
+                if (shutdown && pending.isEmpty()) {
+                    return null;
+                }
+                changed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Task task) {
+        lock.lock();
+        try {
+            runningPerDatabase.merge(task.dbName, -1, Integer::sum);
+            // 任务完成后被上限阻塞的 db 可能已可执行
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Task {
+        private final String dbName;
+        private final long cost;
+        private final long seq;
+        private final Runnable runnable;
+
+        Task(String dbName, long cost, long seq, Runnable runnable) {
+            this.dbName = dbName;
+            this.cost = cost;
+            this.seq = seq;
+            this.runnable = runnable;
+        }
+    }
+}
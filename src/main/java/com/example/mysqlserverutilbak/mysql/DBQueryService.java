@@ -1,9 +1,11 @@
 package com.example.mysqlserverutilbak.mysql;
 
+import com.example.mysqlserverutilbak.mysql.util.SqlSession;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.AllArgsConstructor;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
@@ -15,11 +17,19 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.example.mysqlserverutilbak.mysql.util.SqlUtils.executeQuery;
+import static com.example.mysqlserverutilbak.mysql.util.SqlUtils.executeStreamingQuery;
+import static com.example.mysqlserverutilbak.mysql.util.SqlUtils.getAdmissionController;
 import static com.example.mysqlserverutilbak.mysql.Record.*;
+import static com.example.mysqlserverutilbak.mysql.ValidateConfig.*;
 /**
  * @Author qch
  * @Date 2022/8/16 3:12 下午
@@ -32,71 +42,28 @@ public class DBQueryService {
 
     private static final Set EXCLUSIVE_DATABASES = ImmutableSet.of("mysql", "performance_schema", "sys", "information_schema");
 
-    private static final Set STRING_TYPE = ImmutableSet.of("varchar", "longtext", "tinytext", "mediumtext", "text");
-
-    private static final String SHOW_DB = "show databases;";
-
-    private static final String SHOW_TABLES = "SHOW TABLES FROM ";
-
-    private static final String SHOW_TABLE_STRUCTURES_IN_DB = "SELECT * FROM information_schema.columns WHERE TABLE_SCHEMA = ? limit ?,?";
-
+    // AVG_ROW_LENGTH 未统计时 records 的初始批次大小，也是增量校验每次复核的主键数
     public static final int LIMIT = 500;
 
-    private Set<String> excludeDB;
+    // 按主键批量查询时 IN 列表的固定长度
+    private static final int[] PK_PROBE_BUCKETS = {64, 256, 1024};
 
-    // 1. show database
-    public Set<String> getAllDBInDataSource(DataSource dataSource) {
-        Set<String> dbNames = executeQuery(dataSource, SHOW_DB, (rs) -> {
-            Set<String> dbNames0 = Sets.newHashSet();
-            try {
-                while (rs.next()) {
-                    String dbName = rs.getString(1);
-                    if (!config.getExcludeDataBase().contains(dbName)) {
-                        dbNames0.add(dbName);
-                    }
-                }
-            } catch (SQLException e) {
-                log.error("[SqlBuilder]: getAllDBInDataSource fail", e);
-            }
-            return dbNames0;
-        });
-        return dbNames;
-    }
-
-    // 2. show tables from ${db_name}
-    public Set<String> getTables(DataSource dataSource, String dbName) {
-        Set<String> excludeTables = config.getExcludeDBAndTable().computeIfAbsent(dbName, key -> Sets.newHashSet());
+    // 每个对比线程最多有一个 target 查询在执行，线程数随对比线程数增长
+    private static final ExecutorService PEER_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("DBQueryService-peer-%d").build());
 
-        Set<String> tableNames = executeQuery(dataSource, buildShowTablesSQL(dbName), (rs) -> {
-            Set<String> tableNames0 = Sets.newHashSet();
-            try {
-                while (rs.next()) {
-                    String tableName = rs.getString(1);
-                    if (!excludeTables.contains(tableName)) {
-                        tableNames0.add(tableName);
-                    }
-                }
-            } catch (SQLException e) {
-                log.error("[DBCheck]: query tables fail", e);
-            }
-            return tableNames0;
-        });
+    private Set<String> excludeDB;
 
-        return tableNames;
-    }
+    // db.table#bucket -> 按主键批量查询的 SQL
+    private final Map<String, String> pkProbeSqlCache = new ConcurrentHashMap<>();
 
-    private String buildShowTablesSQL(String dbName) {
-        return SHOW_TABLES + enhanceWithBackQuote(dbName);
-    }
+    // db.table -> records 查询的列投影，未登记的 table 查询 SELECT *
+    private final Map<String, ColumnProjection> projections = new ConcurrentHashMap<>();
 
     private String enhanceWithBackQuote(String str) {
         return "`" + str + "`";
     }
 
-    private String enhanceWithQuote(String str) {
-        return "'" + str + "'";
-    }
-
     /**
      * 查询表结构的条件 ： TABLE_SCHEMA, TABLE_NAME
      * columns 表内，必须一致的columns结构。
@@ -120,186 +87,360 @@ public class DBQueryService {
      * https://dev.mysql.com/doc/refman/5.7/en/privileges-provided.html#priv_references
      * 15. ORDINAL_POSITION            columns的位置
      */
-    // 3. 查询db下所有table的表结构  SELECT * FROM information_schema where table_schema = ${db_name}
-    public Map<String, Map<String, Set<ColumnStructure>>> getColumnsInfoFromDataSource(Map<String, Set<String>> rawSource, DataSource dataSource) {
-        Map<String, Map<String, Set<ColumnStructure>>> tableStructure = Maps.newHashMap();
-        for (Map.Entry<String, Set<String>> entry : rawSource.entrySet()) {
-            String dbName = entry.getKey();
-            Set<String> tables = entry.getValue();
-            Integer start = 0;
-
-            for (int i = 0; start == i * LIMIT; i++) {
-                Integer columnTotal = executeQuery(dataSource, SHOW_TABLE_STRUCTURES_IN_DB, (rs) -> {
-                    int columnTotal0 = 0;
-                    try {
-                        while (rs.next()) {// 存储单个column的结构
-                            columnTotal0++;
-                            String tableName = rs.getString("TABLE_NAME");
-                            ColumnStructure columnStructure = new ColumnStructure();
-                            columnStructure.setTableSchema(dbName);
-                            columnStructure.setTableName(tableName);
-                            columnStructure.setColumnName(rs.getString("COLUMN_NAME"));
-                            columnStructure.setColumnDefault(rs.getString("COLUMN_DEFAULT"));
-                            columnStructure.setIsNullable(rs.getString("IS_NULLABLE"));
-                            columnStructure.setDataType(rs.getString("DATA_TYPE"));
-                            columnStructure.setCharacterMaximumLength(rs.getLong("CHARACTER_MAXIMUM_LENGTH"));
-                            columnStructure.setCharacterOctetLength(rs.getLong("CHARACTER_OCTET_LENGTH"));
-                            columnStructure.setNumericPrecision(rs.getLong("NUMERIC_PRECISION"));
-                            columnStructure.setNumericScale(rs.getLong("NUMERIC_SCALE"));
-                            columnStructure.setDataTimePrecision(rs.getString("DATETIME_PRECISION"));
-                            columnStructure.setCharacterSetName(rs.getString("CHARACTER_SET_NAME"));
-                            columnStructure.setCollationName(rs.getString("COLLATION_NAME"));
-                            columnStructure.setColumnType(rs.getString("COLUMN_TYPE"));
-                            columnStructure.setColumnKey(rs.getString("COLUMN_KEY"));
-                            columnStructure.setPrivileges(rs.getString("PRIVILEGES"));
-                            columnStructure.setOrdinalPosition(rs.getLong("ORDINAL_POSITION"));
-
-                            Set<ColumnStructure> columnStructureSet = tableStructure.
-                                    computeIfAbsent(dbName, dbName0 -> Maps.newHashMap()).
-                                    computeIfAbsent(tableName, tableName0 -> Sets.newHashSet());
-                            columnStructureSet.add(columnStructure);
-                        }
-                    } catch (SQLException e) {
-                        log.error("[ShowTableStructure] SQL execute fail", e);
-                    }
-                    return columnTotal0;
-                }, dbName, start, LIMIT);
-                start += columnTotal;
+    // information_schema.COLUMNS 的一行转换为 ColumnStructure
+    public static ColumnStructure toColumnStructure(ResultSet rs) throws SQLException {
+        ColumnStructure columnStructure = new ColumnStructure();
+        columnStructure.setTableSchema(rs.getString("TABLE_SCHEMA"));
+        columnStructure.setTableName(rs.getString("TABLE_NAME"));
+        columnStructure.setColumnName(rs.getString("COLUMN_NAME"));
+        columnStructure.setColumnDefault(rs.getString("COLUMN_DEFAULT"));
+        columnStructure.setIsNullable(rs.getString("IS_NULLABLE"));
+        columnStructure.setDataType(rs.getString("DATA_TYPE"));
+        columnStructure.setCharacterMaximumLength(rs.getLong("CHARACTER_MAXIMUM_LENGTH"));
+        columnStructure.setCharacterOctetLength(rs.getLong("CHARACTER_OCTET_LENGTH"));
+        columnStructure.setNumericPrecision(rs.getLong("NUMERIC_PRECISION"));
+        columnStructure.setNumericScale(rs.getLong("NUMERIC_SCALE"));
+        columnStructure.setDataTimePrecision(rs.getString("DATETIME_PRECISION"));
+        columnStructure.setCharacterSetName(rs.getString("CHARACTER_SET_NAME"));
+        columnStructure.setCollationName(rs.getString("COLLATION_NAME"));
+        columnStructure.setColumnType(rs.getString("COLUMN_TYPE"));
+        columnStructure.setColumnKey(rs.getString("COLUMN_KEY"));
+        columnStructure.setPrivileges(rs.getString("PRIVILEGES"));
+        columnStructure.setOrdinalPosition(rs.getLong("ORDINAL_POSITION"));
+        return columnStructure;
+    }
+
+    // 4. 统计 table 在主键 range 内的 record count，查询失败或超时返回 null
+    public Long getRecordCount(DataSource dataSource, String dbName, String tableName, List<ColumnStructure> primaryColStructures, PkRange range, int timeoutSeconds) {
+        List<Object> args = Lists.newArrayList();
+        String sql = "SELECT count(*) FROM " + getDBTableKey(dbName, tableName) + buildRangeCondition(primaryColStructures, range, args);
+        return executeQuery(dataSource, sql, timeoutSeconds, (rs) -> {
+            try {
+                return rs.next() ? rs.getLong(1) : null;
+            } catch (SQLException e) {
+                log.error("[DIFF_FROM_RECORD_NUM] fail, dbName = {}, tableName = {}, range = {}", dbName, tableName, range, e);
+                return null;
             }
-        }
-        return tableStructure;
+        }, args.toArray());
     }
 
-    // 4. 统计db下所有table的 record count
-    public Map<String, Map<String, Long>> getTableCountMap(Map<String, Set<String>> rawSource, DataSource dataSource) {
-        Map<String, Map<String, Long>> recordCount = Maps.newHashMap();
-        for (Map.Entry<String, Set<String>> entry : rawSource.entrySet()) {
-            String dbName = entry.getKey();
-            Set<String> tables = entry.getValue();
-            executeQuery(dataSource, getDBCountSQL(dbName, tables), (rs) -> {
-                try {
-                    while (rs.next()) {
+    // source、target 的同一步查询并发执行：target 提交到 PEER_EXECUTOR，source 在当前线程执行
+    public static <T> Pair<T, T> queryInParallel(Supplier<T> sourceQuery, Supplier<T> targetQuery) {
+        CompletableFuture<T> target = CompletableFuture.supplyAsync(targetQuery, PEER_EXECUTOR);
+        T source = sourceQuery.get();
+        return Pair.of(source, target.join());
+    }
 
-                        String tableName = rs.getString("table_name");
-                        Long totalCount = rs.getLong("total_count");
-                        Map<String, Long> tableRecordCount = recordCount.computeIfAbsent(dbName, (key) -> Maps.newHashMap());
-                        tableRecordCount.put(tableName, totalCount);
-                    }
-                } catch (SQLException e) {
-                    log.error("[DIFF_FROM_RECORD_NUM] fail", e);
-                }
-                return null;
-            });
+    private String getDBTableKey(String dbName, String tableName) {
+        return enhanceWithBackQuote(dbName) + "." + enhanceWithBackQuote(tableName);
+    }
+
+    // 主键列按 PRIMARY 索引内的顺序排列，indexOrder 缺失或不完整时按列的位置排列
+    public static List<ColumnStructure> orderPrimaryColStructures(Set<ColumnStructure> columns, List<String> indexOrder) {
+        List<ColumnStructure> primaryColStructures = columns.stream().
+                filter(column -> StringUtils.equals(ColumnStructure.columnKey.PRI.name(), column.getColumnKey())).
+                sorted(Comparator.comparingLong(ColumnStructure::getOrdinalPosition)).
+                collect(Collectors.toList());
+        if (indexOrder != null && indexOrder.size() == primaryColStructures.size()) {
+            primaryColStructures.sort(Comparator.comparingInt(column -> indexOrder.indexOf(column.getColumnName())));
         }
-        return recordCount;
+        return primaryColStructures;
     }
 
-    private String getDBCountSQL(String dbName, Set<String> tables) {
+    // 按主键顺序查询 range 内的 records，limit <= 0 时不限制条数
+    public RowBatch queryRecordsInRange(DataSource dataSource, String dbName, String tableName, List<ColumnStructure> primaryColStructures, PkRange range, int limit) {
+        try (SqlSession session = SqlSession.open(dataSource)) {
+            return queryRecordsInRange(session, dbName, tableName, primaryColStructures, range, limit);
+        }
+    }
+
+    public RowBatch queryRecordsInRange(SqlSession session, String dbName, String tableName, List<ColumnStructure> primaryColStructures, PkRange range, int limit) {
+        List<Object> args = Lists.newArrayList();
+        String sql = buildRangeQuerySql(dbName, tableName, primaryColStructures, range, limit, args);
+        return checkQueryResult(session.executeQuery(sql, rs -> getRecordsFromResultSet(primaryColStructures, rs), args.toArray()), dbName, tableName);
+    }
+
+    /**
+     * 查询 range 内主键 hash 落在 bucket 的 records：CRC32(CONCAT_WS('#', pk...)) % buckets = bucket，按主键排序。
+     * 两侧按同一表达式分桶，同一主键在 source / target 落在同一个桶；limit <= 0 时不限制条数。
+     */
+    public RowBatch querySampleRecords(SqlSession session, String dbName, String tableName, List<ColumnStructure> primaryColStructures,
+                                       PkRange range, int buckets, int bucket, int limit) {
+        List<Object> args = Lists.newArrayList();
+        String rangeCondition = buildRangeCondition(primaryColStructures, range, args);
         StringBuilder sb = new StringBuilder();
-        if (StringUtils.isEmpty(dbName) || tables == null || tables.isEmpty()) {
-            return null;
+        sb.append("SELECT ").append(getSelectList(dbName, tableName)).append(" FROM ").append(getDBTableKey(dbName, tableName)).
+                append(rangeCondition).append(rangeCondition.isEmpty() ? " WHERE " : " AND ").
+                append("CRC32(CONCAT_WS('#',").append(buildPkColumns(primaryColStructures)).append(")) % ? = ?").
+                append(" ORDER BY ").append(buildPkColumns(primaryColStructures));
+        args.add(buckets);
+        args.add(bucket);
+        if (limit > 0) {
+            sb.append(" LIMIT ?");
+            args.add(limit);
         }
-        tables.stream().forEach((tableName) -> {
-            if (!sb.toString().isEmpty()) {
-                sb.append("UNION ALL \n");
-            }
-            sb.append("SELECT ").
-                    append(enhanceWithQuote(dbName)).append(" db_name, ").
-                    append(enhanceWithQuote(tableName)).append(" table_name, ").
-                    append("count(*) total_count FROM ").append(getDBTableKey(dbName, tableName)).append(" \n");
-        });
-        return sb.toString();
+        return checkQueryResult(session.executeQuery(sb.toString(), rs -> getRecordsFromResultSet(primaryColStructures, rs), args.toArray()), dbName, tableName);
     }
 
-    private String getDBTableKey(String dbName, String tableName) {
-        return enhanceWithBackQuote(dbName) + "." + enhanceWithBackQuote(tableName);
+    // 分页读取 range 内的 source records 及其 target 对应 records，后台预取至多 prefetchPages 页；snapshot 时两侧各自在一致性快照内读取
+    public PageReader openPageReader(DataSource sourceDataSource, DataSource targetDataSource, String dbName, String tableName,
+                                     List<ColumnStructure> primaryColStructures, PkRange range, BatchSizer batchSizer, int prefetchPages, long maxRows,
+                                     boolean snapshot) {
+        return new PageReader(this, sourceDataSource, targetDataSource, dbName, tableName, primaryColStructures, range, batchSizer,
+                prefetchPages, maxRows, snapshot);
+    }
+
+    // 按 columnFilters 构建 table 的列投影并登记，之后该 table 的 records 查询只读取投影内的列
+    public ColumnProjection registerProjection(String dbName, String tableName, List<ColumnStructure> orderedColumns, List<ColumnStructure> primaryColStructures) {
+        ColumnProjection projection = ColumnProjection.of(getColumnFilter(dbName, tableName), orderedColumns, primaryColStructures);
+        String dbTableKey = getDBTableKey(dbName, tableName);
+        projections.put(dbTableKey, projection);
+        // 登记前缓存的按主键查询 SQL 使用旧的投影
+        for (int bucket : PK_PROBE_BUCKETS) {
+            pkProbeSqlCache.remove(dbTableKey + "#" + bucket);
+        }
+        return projection;
     }
 
-    // 5. 批量顺序查询 source records， 每批次500条
-    public Map<PrimaryKeys,Record> querySourceRecords(DataSource sourceDataSource, String dbName, String tableName, List<ColumnStructure> primaryColStructures, int start) {
-        return executeQuery(sourceDataSource,
-                getQueryRecordsInOrderSQL(dbName, tableName),
-                rs -> getRecordsFromResultSet(primaryColStructures, rs), start, LIMIT);
+    private ColumnFilter getColumnFilter(String dbName, String tableName) {
+        Map<String, ColumnFilter> tables = config.getColumnFilters() == null ? null : config.getColumnFilters().get(dbName);
+        return tables == null ? null : tables.getOrDefault(tableName, tables.get("*"));
     }
 
-    private String getQueryRecordsInOrderSQL(String dbName, String tableName) {
+    private String getSelectList(String dbName, String tableName) {
+        ColumnProjection projection = projections.get(getDBTableKey(dbName, tableName));
+        return projection == null ? "*" : projection.getSelectList();
+    }
+
+    private String buildRangeQuerySql(String dbName, String tableName, List<ColumnStructure> primaryColStructures, PkRange range, int limit, List<Object> args) {
         StringBuilder sb = new StringBuilder();
-        sb.append("SELECT * FROM ").append(getDBTableKey(dbName, tableName)).append(" LIMIT ?,?");
+        sb.append("SELECT ").append(getSelectList(dbName, tableName)).append(" FROM ").append(getDBTableKey(dbName, tableName)).
+                append(buildRangeCondition(primaryColStructures, range, args)).
+                append(" ORDER BY ").append(buildPkColumns(primaryColStructures));
+        if (limit > 0) {
+            sb.append(" LIMIT ?");
+            args.add(limit);
+        }
         return sb.toString();
     }
 
-    private Map<PrimaryKeys,Record> getRecordsFromResultSet(List<ColumnStructure> primaryColStructures, ResultSet rs) {
-        Map<PrimaryKeys,Record> res = new HashMap<>();
-        try {
-            while (rs.next()) {
-                Record record = new Record();
-                List<Object> columnValues = Lists.newArrayList();
-                List<Pair<Object, ColumnStructure>> primaryColValues = Lists.newArrayList();
-                Map<String, ColumnStructure> primaryKeyMap = primaryColStructures.stream().collect(
-                        Collectors.toMap(columnStructure -> columnStructure.getColumnName(), columnStructure -> columnStructure));
-
-
-                ResultSetMetaData metaData = rs.getMetaData();
-                for (int index = 1; index <= metaData.getColumnCount(); index++) {
-                    Object columnValue = rs.getObject(index);
-                    columnValues.add(columnValue);
-                    String columnName = metaData.getColumnLabel(index);
-                    if (primaryKeyMap.keySet().contains(columnName)) {
-                        Pair<Object, ColumnStructure> value2Structure = Pair.of(columnValue, primaryKeyMap.get(columnName));
-                        primaryColValues.add(value2Structure);
-                    }
+    // 查询 range 内按主键顺序第 rowCount 条记录的主键，作为 chunk 的右边界 (包含)；range 内记录不足 rowCount 条时返回 null
+    public PrimaryKeys queryChunkBoundary(DataSource dataSource, String dbName, String tableName, List<ColumnStructure> primaryColStructures, PkRange range, long rowCount) {
+        List<Object> args = Lists.newArrayList();
+        StringBuilder sb = new StringBuilder();
+        sb.append("SELECT ").append(buildPkColumns(primaryColStructures)).
+                append(" FROM ").append(getDBTableKey(dbName, tableName)).
+                append(buildRangeCondition(primaryColStructures, range, args)).
+                append(" ORDER BY ").append(buildPkColumns(primaryColStructures)).
+                append(" LIMIT ?,1");
+        args.add(rowCount - 1);
+
+        RowBatch boundary = checkQueryResult(executeQuery(dataSource, sb.toString(),
+                rs -> getRecordsFromResultSet(primaryColStructures, rs), args.toArray()), dbName, tableName);
+        return boundary.isEmpty() ? null : boundary.primaryKeysAt(0);
+    }
+
+    // 单列整数主键的 MIN / MAX，table 为空或查询失败时返回 null
+    public Pair<Long, Long> queryPkMinMax(DataSource dataSource, String dbName, String tableName, ColumnStructure primaryColStructure) {
+        String pkColumn = enhanceWithBackQuote(primaryColStructure.getColumnName());
+        String sql = "SELECT MIN(" + pkColumn + "), MAX(" + pkColumn + ") FROM " + getDBTableKey(dbName, tableName);
+        return executeQuery(dataSource, sql, (rs) -> {
+            try {
+                if (rs.next()) {
+                    long min = rs.getLong(1);
+                    return rs.wasNull() ? null : Pair.of(min, rs.getLong(2));
                 }
+            } catch (SQLException e) {
+                log.error("[queryPkMinMax] fail, dbName = {}, tableName = {}", dbName, tableName, e);
+            }
+            return null;
+        });
+    }
 
-                record.setColumnValues(columnValues);
-                record.setPrimaryColValues(primaryColValues);
-                res.put(new PrimaryKeys(primaryColValues),record);
+    /**
+     * 服务端计算 range 内记录的 COUNT(*) 与 BIT_XOR(CRC32(row))，只传输两个数字。
+     * CONCAT_WS 会跳过 NULL，因此追加 CONCAT(ISNULL(col)...) 区分 NULL 与空串。
+     */
+    public ChunkChecksum queryChunkChecksum(DataSource dataSource, String dbName, String tableName, List<ColumnStructure> columns, List<ColumnStructure> primaryColStructures, PkRange range) {
+        List<Object> args = Lists.newArrayList();
+        StringBuilder sb = new StringBuilder();
+        sb.append("SELECT COUNT(*) total_count, COALESCE(BIT_XOR(CRC32(").append(buildRowConcat(columns)).append(")), 0) checksum FROM ").
+                append(getDBTableKey(dbName, tableName)).
+                append(buildRangeCondition(primaryColStructures, range, args));
+
+        ChunkChecksum checksum = executeQuery(dataSource, sb.toString(), (rs) -> {
+            try {
+                if (rs.next()) {
+                    return new ChunkChecksum(rs.getLong("total_count"), rs.getLong("checksum"));
+                }
+            } catch (SQLException e) {
+                log.error("[queryChunkChecksum] fail, dbName = {}, tableName = {}", dbName, tableName, e);
             }
+            return null;
+        }, args.toArray());
+        if (checksum == null) {
+            throw new IllegalStateException(String.format("query chunk checksum fail, dbName = %s, tableName = %s, range = %s", dbName, tableName, range));
+        }
+        return checksum;
+    }
+
+    // CHECKSUM TABLE ... EXTENDED 逐行计算整张 table 的 checksum，table 不存在或引擎不支持时返回 null
+    public Long queryTableChecksum(DataSource dataSource, String dbName, String tableName) {
+        return executeQuery(dataSource, "CHECKSUM TABLE " + getDBTableKey(dbName, tableName) + " EXTENDED", (rs) -> {
+            try {
+                if (rs.next()) {
+                    long checksum = rs.getLong("Checksum");
+                    return rs.wasNull() ? null : checksum;
+                }
+            } catch (SQLException e) {
+                log.error("[queryTableChecksum] fail, dbName = {}, tableName = {}", dbName, tableName, e);
+            }
+            return null;
+        });
+    }
+
+    private String buildRowConcat(List<ColumnStructure> columns) {
+        String columnNames = buildSqlWithBracket(columns, columnStructure -> enhanceWithBackQuote(columnStructure.getColumnName()), "", ",", "");
+        String nullFlags = buildSqlWithBracket(columns, columnStructure -> "ISNULL(" + enhanceWithBackQuote(columnStructure.getColumnName()) + ")", "CONCAT(", ",", ")");
+        return "CONCAT_WS('#'," + columnNames + "," + nullFlags + ")";
+    }
+
+    private String buildPkColumns(List<ColumnStructure> primaryColStructures) {
+        return buildSqlWithBracket(primaryColStructures, columnStructure -> enhanceWithBackQuote(columnStructure.getColumnName()), "", ",", "");
+    }
+
+    // range 为左开右闭区间：(pk...) > (lower...) AND (pk...) <= (upper...)，参数按顺序追加到 args
+    private String buildRangeCondition(List<ColumnStructure> primaryColStructures, PkRange range, List<Object> args) {
+        // 无主键的 table 只会以 PkRange.ALL 查询
+        if (range.getLower() == null && range.getUpper() == null) {
+            return "";
+        }
+        String pkColumns = defaultBuildSqlWithBracket(primaryColStructures, columnStructure -> enhanceWithBackQuote(columnStructure.getColumnName()));
+        String placeholders = defaultBuildSqlWithBracket(primaryColStructures, columnStructure -> "?");
+        List<String> conditions = Lists.newArrayList();
+        if (range.getLower() != null) {
+            conditions.add(pkColumns + " > " + placeholders);
+            args.addAll(range.getLower().getValues());
+        }
+        if (range.getUpper() != null) {
+            conditions.add(pkColumns + " <= " + placeholders);
+            args.addAll(range.getUpper().getValues());
+        }
+        return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+    }
 
+    // RowBatch 保持 ResultSet 的顺序，keyset 分页依赖最后一条记录的主键作为下一批次的起点
+    private RowBatch getRecordsFromResultSet(List<ColumnStructure> primaryColStructures, ResultSet rs) {
+        try {
+            return RowBatch.fromResultSet(rs, primaryColStructures);
         } catch (SQLException e) {
             log.error("[query records fail]", e);
+            return null;
         }
-        return res;
     }
 
-    // 6. 根据source records 提供的 primaryKeys，查询target
-    public Map<PrimaryKeys,Record> queryTargetRecords(DataSource targetDataSource, String dbName, String tableName, List<ColumnStructure> primaryColStructures, int start, List<Record> sourceRecords) {
-        return executeQuery(targetDataSource,
-                getQueryRecordsInPKSQL(dbName, tableName, primaryColStructures, sourceRecords),
-                rs -> getRecordsFromResultSet(primaryColStructures, rs));
+    // 查询失败时 executeQuery 返回 null，records 对比不能把失败当作空结果
+    private RowBatch checkQueryResult(RowBatch batch, String dbName, String tableName) {
+        if (batch == null) {
+            throw new IllegalStateException(String.format("query records fail, dbName = %s, tableName = %s", dbName, tableName));
+        }
+        return batch;
     }
 
-    private String getQueryRecordsInPKSQL(String dbName, String tableName, List<ColumnStructure> primaryColStructures, List<Record> sourceRecords) {
+    // 流式读取 range 内按主键排序的 records，每批 batchSize 条，连接在 func 执行期间保持打开
+    public <T> T streamRecordsInRange(DataSource dataSource, String dbName, String tableName, List<ColumnStructure> primaryColStructures, PkRange range, int batchSize, Function<RowBatchCursor, T> func) {
+        List<Object> args = Lists.newArrayList();
         StringBuilder sb = new StringBuilder();
+        sb.append("SELECT ").append(getSelectList(dbName, tableName)).append(" FROM ").append(getDBTableKey(dbName, tableName)).
+                append(buildRangeCondition(primaryColStructures, range, args)).
+                append(" ORDER BY ").append(buildPkColumns(primaryColStructures));
+        return executeStreamingQuery(dataSource, sb.toString(), rs -> {
+            try {
+                return func.apply(new RowBatchCursor(rs, primaryColStructures, batchSize, getAdmissionController(dataSource)));
+            } catch (SQLException e) {
+                throw new IllegalStateException(String.format("open record cursor fail, dbName = %s, tableName = %s", dbName, tableName), e);
+            }
+        }, args.toArray());
+    }
 
-        try {
-            sb.append("SELECT * FROM ").
-                    append(getDBTableKey(dbName, tableName)).
-                    append(" WHERE ").
-                    append(defaultBuildSqlWithBracket(primaryColStructures, columnStructure -> enhanceWithBackQuote(columnStructure.getColumnName()))).
-                    append(" in ").
-                    append(defaultBuildSqlWithBracket(sourceRecords, record -> {
-                                if (record == null) {
-                                    List<String> nulls = primaryColStructures.stream().map(columnStructure -> "NULL").collect(Collectors.toList());
-                                    if (nulls == null || nulls.isEmpty()) {
-                                        nulls = Lists.newArrayList("NULL");
-                                    }
-                                    return defaultBuildSqlWithBracket(nulls, nullStr -> nullStr);
-                                }
-                                return defaultBuildSqlWithBracket(record.getPrimaryColValues(), (pkPair) -> {
-                                    // @leimo todo : pk的type支持 varchar，bigInt等, Map<type, @sqlStringBuilder@>
-                                    Object value = pkPair.getLeft();
-                                    ColumnStructure columnStructure = pkPair.getRight();
-                                    String res = value.toString();
-                                    if (STRING_TYPE.contains(columnStructure.getDataType())) {
-                                        res = enhanceWithQuote(value.toString());
-                                    }
-                                    return res;
-                                });
-                            }));
-        } catch (Exception e) {
-            log.error("getQueryRecordsInPKSQL fail, dbName = {}, tableName = {}",dbName,tableName);
+    // 按主键列表查询 records
+    public RowBatch queryRecordsByPrimaryKeys(DataSource dataSource, String dbName, String tableName, List<ColumnStructure> primaryColStructures, Collection<PrimaryKeys> primaryKeys) {
+        List<List<Object>> keys = primaryKeys.stream().map(PrimaryKeys::getValues).collect(Collectors.toList());
+        return queryRecordsByPrimaryValues(dataSource, dbName, tableName, primaryColStructures, keys);
+    }
+
+    // 按主键值列表查询 records，每个主键的值按主键索引顺序排列
+    public RowBatch queryRecordsByPrimaryValues(DataSource dataSource, String dbName, String tableName, List<ColumnStructure> primaryColStructures, List<List<Object>> keys) {
+        try (SqlSession session = SqlSession.open(dataSource)) {
+            return probeByPrimaryKeys(session, dbName, tableName, primaryColStructures, keys);
         }
-        return sb.toString();
+    }
+
+    // 6. 根据source records 提供的 primaryKeys，查询target
+    public RowBatch queryTargetRecords(SqlSession targetSession, String dbName, String tableName, List<ColumnStructure> primaryColStructures, RowBatch sourceRecords) {
+        List<List<Object>> keys = Lists.newArrayListWithCapacity(sourceRecords.size());
+        for (int row = 0; row < sourceRecords.size(); row++) {
+            List<Object> key = Lists.newArrayListWithCapacity(primaryColStructures.size());
+            for (int pkIndex = 0; pkIndex < primaryColStructures.size(); pkIndex++) {
+                key.add(sourceRecords.getPrimaryValue(row, pkIndex));
+            }
+            keys.add(key);
+        }
+        return probeByPrimaryKeys(targetSession, dbName, tableName, primaryColStructures, keys);
+    }
+
+    /**
+     * WHERE (pk...) IN ((?...),(?...)) 按主键批量查询，主键值作为参数按 java 类型绑定 (Long / String / byte[] / BigDecimal ...)。
+     * IN 列表的长度固定为 PK_PROBE_BUCKETS 之一，不足时重复最后一个主键补齐，同一 table 只会产生几种 SQL，
+     * 配合 druid 的 PreparedStatement 缓存与 useServerPrepStmts 复用服务端解析结果；超过最大 bucket 时分多次查询。
+     */
+    private RowBatch probeByPrimaryKeys(SqlSession session, String dbName, String tableName, List<ColumnStructure> primaryColStructures, List<List<Object>> keys) {
+        if (keys.isEmpty()) {
+            // 返回带列信息的空 batch
+            return checkQueryResult(session.executeQuery("SELECT " + getSelectList(dbName, tableName) + " FROM " + getDBTableKey(dbName, tableName) + " LIMIT 0",
+                    rs -> getRecordsFromResultSet(primaryColStructures, rs)), dbName, tableName);
+        }
+        RowBatch[] result = new RowBatch[1];
+        int maxBucket = PK_PROBE_BUCKETS[PK_PROBE_BUCKETS.length - 1];
+        for (int from = 0; from < keys.size(); from += maxBucket) {
+            List<List<Object>> chunk = keys.subList(from, Math.min(keys.size(), from + maxBucket));
+            int bucket = Arrays.stream(PK_PROBE_BUCKETS).filter(size -> size >= chunk.size()).findFirst().getAsInt();
+            List<Object> args = Lists.newArrayListWithCapacity(bucket * primaryColStructures.size());
+            for (int i = 0; i < bucket; i++) {
+                args.addAll(chunk.get(Math.min(i, chunk.size() - 1)));
+            }
+            String sql = pkProbeSqlCache.computeIfAbsent(getDBTableKey(dbName, tableName) + "#" + bucket,
+                    key -> buildPkProbeSql(dbName, tableName, primaryColStructures, bucket));
+            Boolean success = session.executeQuery(sql, rs -> {
+                try {
+                    if (result[0] == null) {
+                        result[0] = RowBatch.fromResultSet(rs, primaryColStructures);
+                    } else {
+                        result[0].append(rs, Integer.MAX_VALUE);
+                    }
+                    return true;
+                } catch (SQLException e) {
+                    log.error("[query records fail]", e);
+                    return null;
+                }
+            }, args.toArray());
+            checkQueryResult(success == null ? null : result[0], dbName, tableName);
+        }
+        return result[0];
+    }
+
+    private String buildPkProbeSql(String dbName, String tableName, List<ColumnStructure> primaryColStructures, int bucket) {
+        String placeholders = defaultBuildSqlWithBracket(primaryColStructures, columnStructure -> "?");
+        return "SELECT " + getSelectList(dbName, tableName) + " FROM " + getDBTableKey(dbName, tableName) +
+                " WHERE " + defaultBuildSqlWithBracket(primaryColStructures, columnStructure -> enhanceWithBackQuote(columnStructure.getColumnName())) +
+                " IN (" + String.join(",", Collections.nCopies(bucket, placeholders)) + ")";
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class ChunkChecksum {
+        private long totalCount;
+        private long checksum;
     }
 
     // withBracket 返回(e1,e2,e3...)，partStrProvider 返回e1的具体string内容
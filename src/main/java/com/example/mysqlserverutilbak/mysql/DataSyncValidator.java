@@ -1,7 +1,6 @@
 package com.example.mysqlserverutilbak.mysql;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -16,6 +15,8 @@ import javax.sql.DataSource;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import com.google.common.collect.Sets.SetView;
@@ -25,6 +26,10 @@ import static com.example.mysqlserverutilbak.mysql.DifferenceInfo.*;
 import static com.example.mysqlserverutilbak.mysql.ColumnStructure.*;
 import static com.example.mysqlserverutilbak.mysql.DBQueryService.*;
 import static com.example.mysqlserverutilbak.mysql.Record.*;
+import static com.example.mysqlserverutilbak.mysql.ValidateConfig.*;
+import static com.example.mysqlserverutilbak.mysql.CheckpointStore.*;
+import static com.example.mysqlserverutilbak.mysql.MetadataLoader.*;
+import static com.example.mysqlserverutilbak.mysql.SampleRecordComparator.*;
 
 /**
  * @Author qch
@@ -35,8 +40,6 @@ import static com.example.mysqlserverutilbak.mysql.Record.*;
 @Slf4j
 public class DataSyncValidator implements InitializingBean {
 
-    private static int RECORD_STORAGE_LIMIT = 20;
-
     @Autowired
     private ValidateConfig config;
 
@@ -52,16 +55,60 @@ public class DataSyncValidator implements InitializingBean {
     @Autowired
     DBQueryService DBQueryService;
 
-    private ThreadPoolExecutor executor;
+    @Autowired
+    private RowRecordComparator rowRecordComparator;
+
+    @Autowired
+    private ChecksumRecordComparator checksumRecordComparator;
+
+    @Autowired
+    private MergeJoinRecordComparator mergeJoinRecordComparator;
+
+    @Autowired
+    private SampleRecordComparator sampleRecordComparator;
+
+    @Autowired
+    private RecheckQueue recheckQueue;
+
+    @Autowired
+    private TableSplitter tableSplitter;
+
+    @Autowired
+    private CheckpointStore checkpointStore;
+
+    @Autowired
+    private MetadataLoader metadataLoader;
+
+    @Autowired
+    private RecordCounter recordCounter;
+
+    private ComparisonScheduler scheduler;
 
     @Override
     public void afterPropertiesSet() {
+        if (config.getRunMode() == RunMode.INCREMENTAL) {
+            log.info("[DataSyncValidator] run mode is INCREMENTAL, skip full validation");
+            return;
+        }
+        checkpointStore.open();
+        if (checkpointStore.isResumed()) {
+            // 从 checkpoint 继续：跳过 1 ~ 3 阶段，重新登记已发现的差异，已完成的 table 不再对比，已 count 的 table 直接对比内容
+            checkpointStore.getRestoredDiffs().forEach(registry::registerDiffInfo);
+            Map<String, Set<String>> rawSource = checkpointStore.getRawSource();
+            Pair<SchemaMetadata, SchemaMetadata> metadata = metadataLoader.load(sourceDataSource, targetDataSource);
+            validateTables(rawSource, metadata.getLeft(), metadata.getRight(), checkpointStore.getSourceCounts());
+            return;
+        }
         StopWatch stopWatch = new StopWatch();
 
         stopWatch.start();
+        // 0. 一次性加载 source、target 的 db、table、columns，1 ~ 3 阶段不再查询 information_schema
+        Pair<SchemaMetadata, SchemaMetadata> metadata = metadataLoader.load(sourceDataSource, targetDataSource);
+        SchemaMetadata sourceMetadata = metadata.getLeft();
+        SchemaMetadata targetMetadata = metadata.getRight();
         // 1. [MISS_DATABASE]： 构建差集，关注 source具备，但是target不具备的 datasource。
-        Set<String> sourceDBNames = DBQueryService.getAllDBInDataSource(sourceDataSource);
-        Set<String> targetDBNames = DBQueryService.getAllDBInDataSource(targetDataSource);
+        Set<String> sourceDBNames = sourceMetadata.getDatabases();
+        Set<String> targetDBNames = targetMetadata.getDatabases();
         stopWatch.stop();
         log.info("[MISS_DATABASE-0]: the consuming is {} ms", stopWatch.getLastTaskTimeMillis());
         stopWatch.start();
@@ -88,8 +135,8 @@ public class DataSyncValidator implements InitializingBean {
         Map<String, Set<String>> tempRawSource = Maps.newHashMap();
 
         for (String dbName : rawSource.keySet()) {
-            Set<String> sourceTables = DBQueryService.getTables(sourceDataSource, dbName);
-            Set<String> targetTables = DBQueryService.getTables(targetDataSource, dbName);
+            Set<String> sourceTables = sourceMetadata.getTables(dbName);
+            Set<String> targetTables = targetMetadata.getTables(dbName);
             SetView<String> tableDifference = Sets.difference(sourceTables, targetTables);
 
             //rawTables 标记 dbNames下未处理的table
@@ -114,18 +161,14 @@ public class DataSyncValidator implements InitializingBean {
         // batch query column from information_schema,     single column query会给予数据库过大压力。
         // SQL 语句中 in参数的限制：     https://blog.csdn.net/a772304419/article/details/103838176#:~:text=Oracle%E4%B8%AD%20%EF%BC%8Cin%E8%AF%AD%E5%8F%A5%E4%B8%AD%E5%8F%AF%E6%94%BE%E7%9A%84%E6%9C%80%E5%A4%A7%E5%8F%82%E6%95%B0%E4%B8%AA%E6%95%B0%E6%98%AF%201000%E4%B8%AA%20%E3%80%82%20%E4%B9%8B%E5%89%8D%E9%81%87%E5%88%B0%E8%B6%85%E8%BF%871000%E7%9A%84%E6%83%85%E5%86%B5%EF%BC%8C%E5%8F%AF%E7%94%A8%E5%A6%82%E4%B8%8B%E8%AF%AD%E5%8F%A5%EF%BC%8C%E4%BD%86%E5%A6%82%E6%AD%A4%E5%A4%9A%E5%8F%82%E6%95%B0%E9%A1%B9%E7%9B%AE%E4%BC%9A%E4%BD%8E%EF%BC%8C%E5%8F%AF%E8%80%83%E8%99%91%E7%94%A8%E5%88%AB%E7%9A%84%E6%96%B9%E5%BC%8F%E4%BC%98%E5%8C%96%E3%80%82%20select%20%2A%20where,id%20%28xxx%2Cxxx...%29%20id%20%28yyy%2Cyyy%2C...%29%20mysql%E4%B8%AD%20%EF%BC%8Cin%E8%AF%AD%E5%8F%A5%E4%B8%AD%E5%8F%82%E6%95%B0%E4%B8%AA%E6%95%B0%E6%98%AF%20%E4%B8%8D%E9%99%90%E5%88%B6%20%E7%9A%84%E3%80%82
         stopWatch.start();
-        Map<String, Map<String, Set<ColumnStructure>>> sourceColumnMap = DBQueryService.getColumnsInfoFromDataSource(rawSource, sourceDataSource);
-        Map<String, Map<String, Set<ColumnStructure>>> targetColumnMap = DBQueryService.getColumnsInfoFromDataSource(rawSource, targetDataSource);
         tempRawSource = Maps.newHashMap();
-        for (Entry<String, Map<String, Set<ColumnStructure>>> dbEntry : sourceColumnMap.entrySet()) {
-            String dbName = dbEntry.getKey();
-            Map<String, Set<ColumnStructure>> tableColumns = dbEntry.getValue();
-            Set<String> rawTables = Sets.newHashSet(tableColumns.keySet());
-
-            for (Entry<String, Set<ColumnStructure>> tableEntry : tableColumns.entrySet()) {
-                String tableName = tableEntry.getKey();
-                Set<ColumnStructure> sourceColumns = tableEntry.getValue();
-                Set<ColumnStructure> targetColumns = targetColumnMap.computeIfAbsent(dbName, key -> Maps.newHashMap()).get(tableName);
+        for (Entry<String, Set<String>> entry : rawSource.entrySet()) {
+            String dbName = entry.getKey();
+            Set<String> rawTables = Sets.newHashSet(entry.getValue());
+
+            for (String tableName : entry.getValue()) {
+                Set<ColumnStructure> sourceColumns = sourceMetadata.getColumns(dbName, tableName);
+                Set<ColumnStructure> targetColumns = targetMetadata.getColumns(dbName, tableName);
                 Sets.SetView<ColumnStructure> columnsOnlyInSource = Sets.difference(sourceColumns, targetColumns);
                 Sets.SetView<ColumnStructure> columnsOnlyInTarget = Sets.difference(targetColumns, sourceColumns);
                 if (!columnsOnlyInSource.isEmpty() || !columnsOnlyInTarget.isEmpty()) {
@@ -142,42 +185,18 @@ public class DataSyncValidator implements InitializingBean {
         mergeTemp2RawSource(rawSource, tempRawSource);
         stopWatch.stop();
         log.info("[DIFF_FROM_TABLE_STRUCTURE]: the consuming is {} ms", stopWatch.getLastTaskTimeMillis());
-        // 4. [DIFF_FROM_RECORD_NUM]
-        // UNION ALL拼接多table count， LIMIT = 500 统计record count
-//        SELECT count(*) total_count, 'columns' table_name FROM information_schema.columns
-//        UNION ALL
-//        SELECT count(*) total_count, '_test_leimo_user' table_name FROM xspace_account._test_leimo_user
-//        @leimo note: 字符串的最大长度：https://www.cnblogs.com/54chensongxia/p/13640352.html#:~:text=String%20%E7%9A%84%E9%95%BF%E5%BA%A6%E6%98%AF%E6%9C%89%E9%99%90%E5%88%B6%E7%9A%84%E3%80%82,%E7%BC%96%E8%AF%91%E6%9C%9F%E7%9A%84%E9%99%90%E5%88%B6%EF%BC%9A%E5%AD%97%E7%AC%A6%E4%B8%B2%E7%9A%84UTF8%E7%BC%96%E7%A0%81%E5%80%BC%E7%9A%84%E5%AD%97%E8%8A%82%E6%95%B0%E4%B8%8D%E8%83%BD%E8%B6%85%E8%BF%8765535%EF%BC%8C%E5%AD%97%E7%AC%A6%E4%B8%B2%E7%9A%84%E9%95%BF%E5%BA%A6%E4%B8%8D%E8%83%BD%E8%B6%85%E8%BF%8765534%EF%BC%9B%20%E8%BF%90%E8%A1%8C%E6%97%B6%E9%99%90%E5%88%B6%EF%BC%9A%E5%AD%97%E7%AC%A6%E4%B8%B2%E7%9A%84%E9%95%BF%E5%BA%A6%E4%B8%8D%E8%83%BD%E8%B6%85%E8%BF%872%5E31-1%EF%BC%8C%E5%8D%A0%E7%94%A8%E7%9A%84%E5%86%85%E5%AD%98%E6%95%B0%E4%B8%8D%E8%83%BD%E8%B6%85%E8%BF%87%E8%99%9A%E6%8B%9F%E6%9C%BA%E8%83%BD%E5%A4%9F%E6%8F%90%E4%BE%9B%E7%9A%84%E6%9C%80%E5%A4%A7%E5%80%BC%E3%80%82
 
-        stopWatch.start();
-        Map<String, Map<String, Long>> sourceRecordCount = DBQueryService.getTableCountMap(rawSource, sourceDataSource);
-        Map<String, Map<String, Long>> targetRecordCount = DBQueryService.getTableCountMap(rawSource, targetDataSource);
-        tempRawSource = Maps.newHashMap();
-
-        for (Entry<String, Map<String, Long>> entry : sourceRecordCount.entrySet()) {
-            String dbName = entry.getKey();
-            Map<String, Long> tableCountMap = entry.getValue();
-            Set<String> rawTables = Sets.newHashSet(tableCountMap.keySet());
-
-            for (Entry<String, Long> tableCountEntry : tableCountMap.entrySet()) {
-                String tableName = tableCountEntry.getKey();
-                Long sourceTotalCount = tableCountEntry.getValue();
-                Long targetTotalCount = targetRecordCount.computeIfAbsent(dbName, key -> Maps.newHashMap()).get(tableName);
-                if (sourceTotalCount == null || !sourceTotalCount.equals(targetTotalCount)) {
-                    RecordCountDiffInfo diffInfo = new RecordCountDiffInfo(dbName, tableName);
-                    diffInfo.setSourceTotalCount(sourceTotalCount);
-                    diffInfo.setTargetTotalCount(targetTotalCount);
-                    registry.registerDiffInfo(diffInfo);
-
-                    rawTables.remove(tableName);
-                }
-            }
-            tempRawSource.put(dbName, rawTables);
-        }
-        mergeTemp2RawSource(rawSource, tempRawSource);
-        stopWatch.stop();
-        log.info("[DIFF_FROM_RECORD_NUM]: the consuming is {} ms", stopWatch.getLastTaskTimeMillis());
+        checkpointStore.saveRawSource(rawSource);
+        validateTables(rawSource, sourceMetadata, targetMetadata, Collections.emptyMap());
+    }
 
+    /**
+     * 4 ~ 7 阶段按 table 流水线执行：table 的 record count 一致后立即提交内容对比，不等待其他 table 完成 count。
+     * countedTables 为 resume 时已 count 且一致的 table，直接进入内容对比。
+     */
+    private void validateTables(Map<String, Set<String>> rawSource, SchemaMetadata sourceMetadata, SchemaMetadata targetMetadata,
+                                Map<String, Map<String, Long>> countedTables) {
+        StopWatch stopWatch = new StopWatch();
         // 5. [DIFF_FROM_RECORD_CONTENT]
         // rs.getType 返回 数据表类型code，（1）根据type_code执行反序列化。 （2）拼接 record 对象 （3）执行equals方法
 
@@ -192,113 +211,288 @@ public class DataSyncValidator implements InitializingBean {
 
         // 目标-3： 以db.table为基本单位，分配线程执行records compare. countDownLatch实现主线程阻塞等待多线程并发compare records
         stopWatch.start();
-        int rawTableNum = rawSource.values().stream().map(set -> set.size()).reduce((total0, ele) -> total0 + ele).orElse(0);
-        log.info("[DIFF_FROM_RECORD_CONTENT] raw source table count = {}", rawTableNum);
-        CountDownLatch latch = new CountDownLatch(rawTableNum);
-        ThreadPoolExecutor executor = getExecutor();
-
-        for (Entry<String, Set<String>> entry : rawSource.entrySet()) {
-            String dbName = entry.getKey();
-            Set<String> tableNames = entry.getValue();
-
-            for (String tableName : tableNames) {
-                executor.execute(() -> {
-                    Set<ColumnStructure> columns = sourceColumnMap.get(dbName).get(tableName);
-                    List<ColumnStructure> primaryColStructures = columns.stream().
-                            filter(column -> StringUtils.equals(columnKey.PRI.name(), column.getColumnKey())).
-                            sorted(Comparator.comparingLong(ColumnStructure::getOrdinalPosition)).
-                            collect(Collectors.toList());
-
-                    // 5.[OTHER_DIFF_REASON]: table缺少主键
-                    try {
-                        if (primaryColStructures == null || primaryColStructures.isEmpty()) {
-                            MissPrimaryKeyInfo diffInfo = new MissPrimaryKeyInfo(dbName, tableName);
-                            log.info("primaryColStructures is empty, dbName = {}, tableName = {}", dbName, tableName);
-                            registry.registerDiffInfo(diffInfo);
-                        } else {
-                            // 6. [DIFF_FROM_RECORDS_CONTENT] 检查数据表内容差异
-                            RecordContentDiffInfo diffInfo = new RecordContentDiffInfo(dbName, tableName);
-                            diffInfo.setRecordsOnlyInSource(Lists.newArrayList());
-                            diffInfo.setRecordsOnlyInTarget(Lists.newArrayList());
-                            diffInfo.setSamePkDiffValues(Lists.newArrayList());
-
-                            // db.table级别的record校验，每批次校验500条数据内容
-                            int start = 0;
-                            int i = 0;
-                            // diffInfo 不存储所有差异record，避免内存溢出
-                            for (; start == i * LIMIT && i< OutOfLimitInfo.RECORD_COMPARE_LIMIT && diffInfo.getRecordsOnlyInSource().size() < RECORD_STORAGE_LIMIT && diffInfo.getRecordsOnlyInTarget().size() < RECORD_STORAGE_LIMIT; i++) {
-                                Map<PrimaryKeys, Record> sourceRecords = DBQueryService.querySourceRecords(sourceDataSource, dbName, tableName, primaryColStructures, start);
-                                Map<PrimaryKeys, Record> targetRecords = DBQueryService.queryTargetRecords(targetDataSource, dbName, tableName, primaryColStructures, start, Lists.newArrayList(sourceRecords.values()));
-
-                                MapDifference<PrimaryKeys, Record> recordMapDiff = Maps.difference(sourceRecords, targetRecords);
-
-                                List<Record> recordOnlyInSource = Lists.newArrayList(recordMapDiff.entriesOnlyOnLeft().values());
-                                List<Record> recordOnlyInTarget = Lists.newArrayList(recordMapDiff.entriesOnlyOnRight().values());
-                                List<Pair<Record, Record>> sameKeyDiffValue = recordMapDiff.entriesDiffering().entrySet().stream().
-                                        map(entry0 -> {
-                                            MapDifference.ValueDifference<Record> valueDifference = entry0.getValue();
-                                            return Pair.of(valueDifference.leftValue(), valueDifference.rightValue());
-                                        }).collect(Collectors.toList());
-
-                                if (sourceRecords.size() != targetRecords.size() || !recordOnlyInSource.isEmpty() || !recordOnlyInTarget.isEmpty() || !sameKeyDiffValue.isEmpty()) {
-                                    diffInfo.getRecordsOnlyInSource().addAll(recordOnlyInSource);
-                                    diffInfo.getRecordsOnlyInTarget().addAll(recordOnlyInTarget);
-                                    diffInfo.getSamePkDiffValues().addAll(sameKeyDiffValue);
-                                }
-
-                                start += sourceRecords.size();
-                            }
-
-                            // 7. OUT_OF_LIMIT
-                            if (i >= OutOfLimitInfo.RECORD_COMPARE_LIMIT) {
-                                registry.registerDiffInfo(new OutOfLimitInfo(dbName, tableName));
-                            }
-
-                            if (!diffInfo.getRecordsOnlyInTarget().isEmpty() || !diffInfo.getRecordsOnlyInSource().isEmpty() || !diffInfo.getSamePkDiffValues().isEmpty()) {
-                                registry.registerDiffInfo(diffInfo);
-                            }
-                        }
-                    } catch (Exception e) {
-                        log.error("executor compare source records with target fail, dbName = {}, tableName = {}", dbName, tableName, e);
-                    } finally {
-                        latch.countDown();
-                        log.info("latch countDown, current value is {}, dbName = {}, tableName = {}", latch.getCount(), dbName, tableName);
-                        rawSource.computeIfAbsent(dbName, key -> Sets.newHashSet()).remove(tableName);
-                        if (latch.getCount() < 5) {
-                            log.info("remain rawSource = {}", rawSource);
-                        }
+        // 先取出全部 table，finish 会并发修改 rawSource
+        List<Pair<String, String>> rawTables = Lists.newArrayList();
+        rawSource.forEach((dbName, tableNames) -> tableNames.forEach(tableName -> rawTables.add(Pair.of(dbName, tableName))));
+        // information_schema 估算行数大的 table 先 count，尽早进入内容对比
+        rawTables.sort(Comparator.comparingLong((Pair<String, String> table) -> sourceMetadata.getTableRows(table.getLeft(), table.getRight())).reversed());
+        log.info("[DIFF_FROM_RECORD_NUM] raw source table count = {}", rawTables.size());
+        CountDownLatch latch = new CountDownLatch(rawTables.size());
+        ComparisonScheduler scheduler = getScheduler();
+        ExecutorService countExecutor = Executors.newFixedThreadPool(config.getCorePoolSize(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("DataSyncValidator-count-%d").build());
+
+        for (Pair<String, String> table : rawTables) {
+            String dbName = table.getLeft();
+            String tableName = table.getRight();
+            Runnable finish = () -> {
+                latch.countDown();
+                log.info("latch countDown, current value is {}, dbName = {}, tableName = {}", latch.getCount(), dbName, tableName);
+                synchronized (rawSource) {
+                    rawSource.computeIfAbsent(dbName, key -> Sets.newHashSet()).remove(tableName);
+                    if (latch.getCount() < 5) {
+                        log.info("remain rawSource = {}", rawSource);
                     }
-                });
+                }
+            };
+            Long countedTotal = countedTables.getOrDefault(dbName, Collections.emptyMap()).get(tableName);
+            if (countedTotal != null) {
+                compareRecordContent(scheduler, dbName, tableName, countedTotal, sourceMetadata, targetMetadata, finish);
+                continue;
             }
+            // 4. [DIFF_FROM_RECORD_NUM] 分级 count，source、target 并发执行
+            recordCounter.count(dbName, tableName, sourceMetadata, targetMetadata, countExecutor).whenComplete((counts, e) -> {
+                boolean submitted = false;
+                try {
+                    if (e != null) {
+                        log.error("count records fail, dbName = {}, tableName = {}", dbName, tableName, e);
+                    } else if (counts.isUnknown()) {
+                        // count 未知时直接对比 record content，不记录 TABLE_COUNT，resume 时重新 count
+                        compareRecordContent(scheduler, dbName, tableName, counts.getSourceCount(), sourceMetadata, targetMetadata, finish);
+                        submitted = true;
+                    } else if (!counts.isMatched()) {
+                        RecordCountDiffInfo diffInfo = new RecordCountDiffInfo(dbName, tableName);
+                        diffInfo.setSourceTotalCount(counts.getSourceCount());
+                        diffInfo.setTargetTotalCount(counts.getTargetCount());
+                        diffInfo.setEstimated(!counts.isExact());
+                        registry.registerDiffInfo(diffInfo);
+                        checkpointStore.saveTableDone(dbName, tableName);
+                    } else {
+                        checkpointStore.saveTableCount(dbName, tableName, counts.getSourceCount());
+                        compareRecordContent(scheduler, dbName, tableName, counts.getSourceCount(), sourceMetadata, targetMetadata, finish);
+                        submitted = true;
+                    }
+                } catch (Exception ex) {
+                    log.error("submit record content compare fail, dbName = {}, tableName = {}", dbName, tableName, ex);
+                } finally {
+                    if (!submitted) {
+                        finish.run();
+                    }
+                }
+            });
         }
 
         try {
             latch.await();
-            executor.shutdown();
+            countExecutor.shutdown();
+            scheduler.shutdown();
             registry.printCoreResult();
             registry.printAllResult();
+            registry.closeReports();
         } catch (InterruptedException e) {
             log.error("[DataSyncValidator] countDownLatch await fail", e);
         }
         stopWatch.stop();
         log.info("[DIFF_FROM_RECORD_CONTENT]: the consuming is {} ms", stopWatch.getLastTaskTimeMillis());
+    }
+
+    // 按 cost 提交 table 的内容对比，对比完成后由 finish 计数
+    private void compareRecordContent(ComparisonScheduler scheduler, String dbName, String tableName, long sourceTotalCount,
+                                      SchemaMetadata sourceMetadata, SchemaMetadata targetMetadata, Runnable finish) {
+        // 估算对比耗时 = record count × 平均行长度，information_schema 未统计时按 1 字节计
+        long avgRowLength = sourceMetadata.getAvgRowLength(dbName, tableName);
+        long cost = sourceTotalCount * Math.max(avgRowLength, 1);
+        scheduler.submit(dbName, cost, () -> {
+            Set<ColumnStructure> columns = sourceMetadata.getColumns(dbName, tableName);
+            TableTask tableTask = null;
+            // 5.[OTHER_DIFF_REASON]: table缺少主键
+            try {
+                List<ColumnStructure> primaryColStructures = sourceMetadata.getPrimaryColStructures(dbName, tableName);
+                if (primaryColStructures == null || primaryColStructures.isEmpty()) {
+                    MissPrimaryKeyInfo diffInfo = new MissPrimaryKeyInfo(dbName, tableName);
+                    log.info("primaryColStructures is empty, dbName = {}, tableName = {}", dbName, tableName);
+                    registry.registerDiffInfo(diffInfo);
+                } else {
+                    // 6. [DIFF_FROM_RECORDS_CONTENT] 检查数据表内容差异，大 table 按主键切分为多个 range，第一个 range 在当前线程对比，其余提交给线程池
+                    List<ColumnStructure> orderedColumns = columns.stream().
+                            sorted(Comparator.comparingLong(ColumnStructure::getOrdinalPosition)).
+                            collect(Collectors.toList());
+                    // resume 时沿用上次的切分结果，range 下标与 checkpoint 一致；抽样的桶每次运行随机选择，不记录 range 进度
+                    boolean rangeCheckpointable = config.getCompareMode() != CompareMode.SAMPLE && checkpointStore.isRangeCheckpointable(primaryColStructures);
+                    List<PkRange> ranges = rangeCheckpointable ? checkpointStore.getSplit(dbName, tableName, primaryColStructures) : null;
+                    if (ranges == null) {
+                        ranges = tableSplitter.split(dbName, tableName, primaryColStructures, sourceTotalCount);
+                        if (rangeCheckpointable) {
+                            checkpointStore.saveSplit(dbName, tableName, ranges);
+                        }
+                    }
+                    // records 查询、chunk checksum 与 RowComparator 只使用投影内的列
+                    ColumnProjection projection = DBQueryService.registerProjection(dbName, tableName, orderedColumns, primaryColStructures);
+                    // 排除或 hash 了部分列时 CHECKSUM TABLE 必然包含这些列的差异，不再使用
+                    String engine = sourceMetadata.getEngine(dbName, tableName);
+                    boolean tableChecksumComparable = projection.isAll() && engine != null &&
+                            StringUtils.equals(engine, targetMetadata.getEngine(dbName, tableName));
+                    // 从 checkpoint 继续部分完成的 table 时追加到上次的差异主键文件，其余 table 重新写入
+                    DiffSink sink = StringUtils.isEmpty(config.getDiffSpillDir()) ? null :
+                            DiffSink.open(config.getDiffSpillDir(), dbName, tableName, checkpointStore.hasRangeProgress(dbName, tableName));
+                    TableTask task = tableTask = new TableTask(dbName, tableName, projection.getColumns(), primaryColStructures, ranges.size(),
+                            rangeCheckpointable, tableChecksumComparable, new BatchSizer(config.getBatch(), avgRowLength),
+                            RowComparator.forTable(projection.getColumns(), targetMetadata.getColumns(dbName, tableName)),
+                            config.getCompareMode() == CompareMode.SAMPLE ? SamplePlan.of(config.getSample(), sourceTotalCount) : null, sink, finish);
+                    // range 任务继承 table 的 cost，优先于更小的 table 执行
+                    for (int i = 1; i < ranges.size(); i++) {
+                        int rangeIndex = i;
+                        PkRange range = ranges.get(i);
+                        scheduler.submit(dbName, cost, () -> compareRange(task, rangeIndex, range));
+                    }
+                    compareRange(task, 0, ranges.get(0));
+                }
+            } catch (Exception e) {
+                log.error("executor compare source records with target fail, dbName = {}, tableName = {}", dbName, tableName, e);
+            } finally {
+                // range 任务由最后完成的 range 负责 finish
+                if (tableTask == null) {
+                    finish.run();
+                }
+            }
+        });
+    }
+
+    // 对比 table 的一个主键 range，差异合并到 table 级别的 diffInfo；最后完成的 range 负责注册差异
+    private void compareRange(TableTask task, int rangeIndex, PkRange range) {
+        String dbName = task.dbName;
+        String tableName = task.tableName;
+        RangeCheckpoint checkpoint = checkpointStore.getRangeCheckpoint(dbName, tableName, rangeIndex);
+        try {
+            // 上次运行已完成的部分直接合并差异，未完成的 range 从最后一个已对比的主键继续
+            task.diffInfo.mergeFrom(checkpoint.getRestoredDiff());
+            task.outOfLimit |= checkpoint.isOutOfLimit();
+            if (!checkpoint.isDone() && !task.diffInfo.isFull()) {
+                PkRange rawRange = checkpoint.resumeRange(range, task.primaryColStructures);
+                // 指纹一致时 range 内没有差异，不再拉取 records
+                RecordContentDiffInfo diffInfo = fingerprintMatched(task, rawRange) ?
+                        task.newDiffInfo() : compareRangeRecords(task, rawRange, checkpoint);
+                task.diffInfo.mergeFrom(diffInfo);
+                if (task.rangeCheckpointable) {
+                    checkpointStore.saveProgress(checkpoint, null, diffInfo, true);
+                }
+            }
+        } catch (Exception e) {
+            task.failed = true;
+            log.error("compare range fail, dbName = {}, tableName = {}, range = {}", dbName, tableName, range, e);
+        } finally {
+            if (task.remainingRanges.decrementAndGet() == 0) {
+                if (task.sink != null) {
+                    task.sink.close();
+                }
+                // 差异延迟复核后再登记，table 在复核完成后 finish
+                if (task.diffInfo.hasDiff() && recheckQueue.isEnabled()) {
+                    recheckQueue.submit(task.diffInfo, task.primaryColStructures, task.rowComparator, confirmed -> finishTable(task, confirmed));
+                } else {
+                    finishTable(task, task.diffInfo);
+                }
+            }
+        }
+    }
+
+    // 登记 table 的差异，diffInfo 为复核后的差异
+    private void finishTable(TableTask task, RecordContentDiffInfo diffInfo) {
+        try {
+            if (diffInfo.hasDiff()) {
+                registry.registerDiffInfo(diffInfo);
+            }
+            // 7. OUT_OF_LIMIT
+            if (task.outOfLimit) {
+                registry.registerDiffInfo(new OutOfLimitInfo(task.dbName, task.tableName));
+            }
+            // 8. SAMPLE_DIVERGENCE
+            if (task.samplePlan != null) {
+                SampleDiffInfo sampleDiffInfo = task.samplePlan.toDiffInfo(diffInfo);
+                log.info("[SAMPLE] {}", sampleDiffInfo);
+                if (sampleDiffInfo.getDiffRows() > 0) {
+                    registry.registerDiffInfo(sampleDiffInfo);
+                }
+            }
+            // 有 range 失败时 resume 需要重新对比
+            if (!task.failed) {
+                checkpointStore.saveTableDone(task.dbName, task.tableName);
+            }
+        } catch (Exception e) {
+            log.error("register table diff fail, dbName = {}, tableName = {}", task.dbName, task.tableName, e);
+        } finally {
+            task.finish.run();
+        }
+    }
 
+    // source、target 并发计算 range 的指纹，查询失败时按不一致处理
+    private boolean fingerprintMatched(TableTask task, PkRange range) {
+        boolean wholeTable = range.getLower() == null && range.getUpper() == null;
+        boolean checksumTable = config.getFingerprintMode() == FingerprintMode.CHECKSUM_TABLE && wholeTable && task.tableChecksumComparable;
+        // CHECKSUM 模式按 chunk 对比的第一步就是 aggregate 指纹，不重复计算；SAMPLE 模式不扫描整个 range
+        if (config.getFingerprintMode() == FingerprintMode.NONE || config.getCompareMode() == CompareMode.SAMPLE ||
+                !checksumTable && config.getCompareMode() == CompareMode.CHECKSUM) {
+            return false;
+        }
+        try {
+            Pair<?, ?> fingerprints = checksumTable ?
+                    queryInParallel(
+                            () -> DBQueryService.queryTableChecksum(sourceDataSource, task.dbName, task.tableName),
+                            () -> DBQueryService.queryTableChecksum(targetDataSource, task.dbName, task.tableName)) :
+                    queryInParallel(
+                            () -> DBQueryService.queryChunkChecksum(sourceDataSource, task.dbName, task.tableName, task.columns, task.primaryColStructures, range),
+                            () -> DBQueryService.queryChunkChecksum(targetDataSource, task.dbName, task.tableName, task.columns, task.primaryColStructures, range));
+            boolean matched = fingerprints.getLeft() != null && fingerprints.getLeft().equals(fingerprints.getRight());
+            log.info("[FINGERPRINT] dbName = {}, tableName = {}, range = {}, checksumTable = {}, matched = {}",
+                    task.dbName, task.tableName, range, checksumTable, matched);
+            return matched;
+        } catch (Exception e) {
+            log.warn("[FINGERPRINT] query fingerprint fail, dbName = {}, tableName = {}, range = {}", task.dbName, task.tableName, range, e);
+            return false;
+        }
+    }
 
-        log.info(">>>>>>>>>>> [DataSyncValidator] core difference is {}", registry.getCoreDifferences());
+    private RecordContentDiffInfo compareRangeRecords(TableTask task, PkRange range, RangeCheckpoint checkpoint) {
+        String dbName = task.dbName;
+        String tableName = task.tableName;
+        if (config.getCompareMode() == CompareMode.MERGE_JOIN) {
+            // 差异主键先写入 range 的暂存文件，merge-join 完成后才追加到 table 的 sink
+            DiffSink staging = task.sink == null ? null : task.sink.newStaging();
+            boolean merged = false;
+            try {
+                RecordContentDiffInfo diffInfo = new RecordContentDiffInfo(dbName, tableName, staging, RecordContentDiffInfo.RECORD_STORAGE_LIMIT);
+                if (mergeJoinRecordComparator.compare(dbName, tableName, task.primaryColStructures, range, task.batchSizer, task.rowComparator, diffInfo)) {
+                    log.debug("[MERGE_JOIN] dbName = {}, tableName = {}, range = {} compared by merge join", dbName, tableName, range);
+                    if (staging != null) {
+                        staging.commitTo(task.sink);
+                    }
+                    merged = true;
+                    return diffInfo;
+                }
+            } finally {
+                if (staging != null && !merged) {
+                    staging.discard();
+                }
+            }
+            // merge-join 检测到主键排序不一致，丢弃已收集的差异 (包括暂存的差异主键) 后降级为 ROW 模式
+        }
+
+        RecordContentDiffInfo diffInfo = task.newDiffInfo();
+        if (config.getCompareMode() == CompareMode.SAMPLE) {
+            sampleRecordComparator.compare(dbName, tableName, task.primaryColStructures, range, task.batchSizer, task.rowComparator, task.samplePlan, diffInfo);
+            return diffInfo;
+        }
+        Consumer<PrimaryKeys> progress = lastPk -> {
+            if (task.rangeCheckpointable) {
+                checkpointStore.saveProgress(checkpoint, lastPk, diffInfo, false);
+            }
+        };
+        if (config.getCompareMode() == CompareMode.CHECKSUM) {
+            checksumRecordComparator.compare(dbName, tableName, task.columns, task.primaryColStructures, range, task.batchSizer, task.rowComparator, diffInfo, progress);
+        } else if (!rowRecordComparator.compare(dbName, tableName, task.primaryColStructures, range, task.batchSizer, task.rowComparator, diffInfo, progress)) {
+            task.outOfLimit = true;
+            checkpoint.setOutOfLimit(true);
+        }
+        return diffInfo;
     }
 
-    private ThreadPoolExecutor getExecutor() {
-        if (executor == null) {
-            executor = new ThreadPoolExecutor(
+    private ComparisonScheduler getScheduler() {
+        if (scheduler == null) {
+            scheduler = new ComparisonScheduler(
                     config.getCorePoolSize(),
-                    config.getMaximumPoolSize(),
-                    config.getKeepAliveTime(),
-                    TimeUnit.MILLISECONDS,
-                    new LinkedBlockingDeque<>(),
-                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("DataSyncValidator-%d").build(),
-                    new ThreadPoolExecutor.CallerRunsPolicy());
+                    config.getMaxTasksPerDatabase(),
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("DataSyncValidator-%d").build());
         }
-        return executor;
+        return scheduler;
     }
 
     private void mergeTemp2RawSource(Map<String, Set<String>> rawSource, Map<String, Set<String>> tempRawSource) {
@@ -312,4 +506,51 @@ public class DataSyncValidator implements InitializingBean {
             }
         }
     }
+
+    // 一张 table 拆分出的所有 range 共享
+    private static class TableTask {
+        private final String dbName;
+        private final String tableName;
+        private final List<ColumnStructure> columns;
+        private final List<ColumnStructure> primaryColStructures;
+        private final RecordContentDiffInfo diffInfo;
+        private final AtomicInteger remainingRanges;
+        private final boolean rangeCheckpointable;
+        // source、target 存储引擎一致且对比全部列，CHECKSUM TABLE 的结果可以比较
+        private final boolean tableChecksumComparable;
+        // range 之间共用，按已读取批次的行长度与耗时调整
+        private final BatchSizer batchSizer;
+        // 按 source / target 的列类型构建一次，range 之间共用
+        private final RowComparator rowComparator;
+        // SAMPLE 模式的抽样参数，其余模式为 null
+        private final SamplePlan samplePlan;
+        // range 之间共用，为 null 时只保留样本
+        private final DiffSink sink;
+        private final Runnable finish;
+        private volatile boolean outOfLimit;
+        private volatile boolean failed;
+
+        TableTask(String dbName, String tableName, List<ColumnStructure> columns, List<ColumnStructure> primaryColStructures, int rangeNum,
+                  boolean rangeCheckpointable, boolean tableChecksumComparable, BatchSizer batchSizer, RowComparator rowComparator,
+                  SamplePlan samplePlan, DiffSink sink, Runnable finish) {
+            this.dbName = dbName;
+            this.tableName = tableName;
+            this.columns = columns;
+            this.primaryColStructures = primaryColStructures;
+            this.diffInfo = new RecordContentDiffInfo(dbName, tableName, sink, RecordContentDiffInfo.RECORD_STORAGE_LIMIT);
+            this.remainingRanges = new AtomicInteger(rangeNum);
+            this.rangeCheckpointable = rangeCheckpointable;
+            this.tableChecksumComparable = tableChecksumComparable;
+            this.batchSizer = batchSizer;
+            this.rowComparator = rowComparator;
+            this.samplePlan = samplePlan;
+            this.sink = sink;
+            this.finish = finish;
+        }
+
+        // 一个 range 的 diffInfo，差异主键写入 table 的 sink
+        RecordContentDiffInfo newDiffInfo() {
+            return new RecordContentDiffInfo(dbName, tableName, sink, RecordContentDiffInfo.RECORD_STORAGE_LIMIT);
+        }
+    }
 }
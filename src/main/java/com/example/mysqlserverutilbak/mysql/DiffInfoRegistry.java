@@ -2,23 +2,19 @@ package com.example.mysqlserverutilbak.mysql;
 
 import com.example.mysqlserverutilbak.mysql.log.CoreMarker;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Streams;
-import com.google.common.io.Files;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
-import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.io.*;
-import java.util.List;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.example.mysqlserverutilbak.mysql.DifferenceInfo.*;
 
@@ -30,12 +26,21 @@ public class DiffInfoRegistry {
     @Autowired
     private ValidateConfig config;
 
-    // key = DiffType, value = <DiffKey, differenceInfo>
-    private Map<DiffType, Map<String, DifferenceInfo>> differences = Maps.newHashMap();
-    private Map<DiffType, Map<String, DifferenceInfo>> coreDifferences = Maps.newHashMap();
+    @Autowired
+    private CheckpointStore checkpointStore;
+
+    // 各 DiffType 的 map 在构造时创建，登记时不加锁；报告按 db.table 排序
+    private final Differences differences = new Differences();
+    private final Differences coreDifferences = new Differences();
+    // db.table -> 按 DiffType 下标存放的 diffInfo，getDiffInfo 按 key 直接查找
+    private final Map<String, AtomicReferenceArray<DifferenceInfo>> diffsByTable = new ConcurrentHashMap<>();
 
     private static final Set<DiffType> EXCLUDE_CORE_DIFF = ImmutableSet.of(DiffType.OUT_OF_LIMIT);
 
+    // 差异登记时写入报告，按需打开
+    private volatile ReportWriter coreReport;
+    private volatile ReportWriter allReport;
+
     public void registerDiffInfo(DifferenceInfo differenceInfo) {
 
         String dbName = differenceInfo.getDbName();
@@ -45,11 +50,23 @@ public class DiffInfoRegistry {
 
         log.info(new CoreMarker(), "[register difference info]: diffType = {}, dbName = {}, tableName = {}, differenceInfo = {}", diffType, dbName, tableName, differenceInfo);
 
-        if (coreTables.keySet().contains(dbName) && coreTables.get(dbName).contains(tableName)) {
-            coreDifferences.computeIfAbsent(diffType, key -> Maps.newTreeMap()).put(buildKey(dbName, tableName), differenceInfo);
+        String key = buildKey(dbName, tableName);
+        boolean core = coreTables.keySet().contains(dbName) && coreTables.get(dbName).contains(tableName);
+        if (core) {
+            coreDifferences.put(diffType, key, differenceInfo);
+        }
+        differences.put(diffType, key, differenceInfo);
+        diffsByTable.computeIfAbsent(key, k -> new AtomicReferenceArray<>(DiffType.values().length)).set(diffType.ordinal(), differenceInfo);
+
+        if (core) {
+            getReport(ResultType.CORE).write(differenceInfo);
         }
+        getReport(ResultType.ALL).write(differenceInfo);
 
-        differences.computeIfAbsent(diffType, (key) -> Maps.newTreeMap()).put(buildKey(dbName, tableName), differenceInfo);
+        // 恢复的差异已存在于 checkpoint 中
+        if (!(differenceInfo instanceof RestoredDiffInfo)) {
+            checkpointStore.saveDiff(differenceInfo);
+        }
     }
 
     public void printCoreResult() {
@@ -60,87 +77,112 @@ public class DiffInfoRegistry {
         printResult(differences, ResultType.ALL);
     }
 
-    private void printResult(Map<DiffType, Map<String, DifferenceInfo>> differences0, ResultType resultType) {
-        String prefix = resultType.getPrefix();
-        String filePrefix = resultType.getName();
-
-        File file = new File(String.format("log/%s-report.txt", filePrefix));
-        if (file.exists()) {
-            file.delete();
-        }
-        file.getParentFile().mkdirs();
-        OutputStream os = null;
-        try {
-            file.createNewFile();
-            os = new FileOutputStream(file);
-        } catch (IOException e) {
-            log.error("create report file fail", e);
+    // 差异已在登记时写入，这里追加各类差异的数量与结论
+    private void printResult(Differences differences0, ResultType resultType) {
+        Map<DiffType, Integer> counts = differences0.getCounts();
+        String conclusion = null;
+        if (resultType == ResultType.CORE) {
+            boolean hasCoreDiff = counts.keySet().stream().anyMatch(diffType -> !EXCLUDE_CORE_DIFF.contains(diffType));
+            conclusion = hasCoreDiff ?
+                    "source数据源和target数据源，内容不一致，数据同步失败" :
+                    "source数据源和target数据源，内容一致，数据同步成功";
         }
 
-        String diffTitleFormat = ">>>>>>>>>>>>>>>> " + prefix + " %s <<<<<<<<<<<<<<<<<< \n";
+        ReportWriter report = getReport(resultType);
+        report.writeSummary(resultType.getPrefix(), conclusion, counts);
+        log.info("[DiffInfoRegistry] {} report = {}, counts = {}, conclusion = {}", resultType.getName(), report.getPath(), counts, conclusion);
+    }
 
-        if (resultType == ResultType.CORE) {
-            Map<String, DifferenceInfo> coreDiff = differences0.entrySet().stream().
-                    filter(entry -> !entry.getValue().isEmpty() && !EXCLUDE_CORE_DIFF.contains(entry.getKey())).
-                    map(entry -> entry.getValue()).findFirst().orElse(null);
-            String result = coreDiff == null ?
-                    String.format(diffTitleFormat, "source数据源和target数据源，内容一致，数据同步成功") :
-                    String.format(diffTitleFormat, "source数据源和target数据源，内容不一致，数据同步失败");
-            try {
-                IOUtils.write(result, os);
-            } catch (IOException e) {
-                log.error("core result write fail", e);
+    private ReportWriter getReport(ResultType resultType) {
+        ReportWriter report = resultType == ResultType.CORE ? coreReport : allReport;
+        if (report != null) {
+            return report;
+        }
+        synchronized (this) {
+            if (resultType == ResultType.CORE) {
+                if (coreReport == null) {
+                    coreReport = openReport(resultType);
+                }
+                return coreReport;
             }
+            if (allReport == null) {
+                allReport = openReport(resultType);
+            }
+            return allReport;
         }
+    }
 
-        OutputStream finalOs = os;
-        differences0.entrySet().stream().forEach((entry) -> {
-            writeReportFromDiffInfo(finalOs, differences0, entry.getKey(), prefix);
-        });
+    private ReportWriter openReport(ResultType resultType) {
+        return ReportWriter.open(config.getReportDir(), resultType.getName(), config.getReportFormat(), config.isReportCompress());
+    }
 
-        try {
-            log.info(IOUtils.toString(file.toURI()));
-            os.close();
-        } catch (IOException e) {
-            log.error("outputStream close fail", e);
+    // 校验结束后关闭报告文件，gzip 格式写入结尾
+    public synchronized void closeReports() {
+        if (coreReport != null) {
+            coreReport.close();
+        }
+        if (allReport != null) {
+            allReport.close();
         }
     }
 
-    private void writeReportFromDiffInfo(OutputStream os, Map<DiffType, Map<String, DifferenceInfo>> differences0, DiffType diffType, String prefix) {
-        Map<String, DifferenceInfo> differenceInfoMap = differences0.get(diffType);
-        List<String> content = Lists.newArrayList();
-        content.add(diffType.getTitle(prefix));
+    // According to dbName + table, get diffInfo;   用于关注core表，更加直观
+    // 缺少 db 时返回 db 的 MISS_DATABASE，否则按 DiffType 顺序返回 table 的第一个差异
+    public DifferenceInfo getDiffInfo(String dbName, String tableName) {
+        AtomicReferenceArray<DifferenceInfo> dbDiffs = diffsByTable.get(buildKey(dbName, DBMissInfo.DB_MISS_TABLE));
+        if (dbDiffs != null && dbDiffs.get(DiffType.MISS_DATABASE.ordinal()) != null) {
+            return dbDiffs.get(DiffType.MISS_DATABASE.ordinal());
+        }
+        AtomicReferenceArray<DifferenceInfo> tableDiffs = diffsByTable.get(buildKey(dbName, tableName));
+        if (tableDiffs == null) {
+            return null;
+        }
+        for (DiffType diffType : DiffType.values()) {
+            DifferenceInfo diffInfo = tableDiffs.get(diffType.ordinal());
+            if (diffType != DiffType.MISS_DATABASE && diffInfo != null) {
+                return diffInfo;
+            }
+        }
+        return null;
+    }
 
-        content.addAll(Streams.mapWithIndex(differenceInfoMap.entrySet().stream(), (entry, index) -> {
-            StringBuilder res = new StringBuilder();
-            res.append(index + 1).append(". ").append(entry.getValue().toString());
-            return res.toString();
-        }).collect(Collectors.toList()));
+    // DiffType -> <db.table, differenceInfo>，每个 DiffType 一个 ConcurrentSkipListMap，计数只在新增 key 时增加
+    public static class Differences {
+        private final Map<DiffType, ConcurrentSkipListMap<String, DifferenceInfo>> byType = new EnumMap<>(DiffType.class);
+        private final Map<DiffType, LongAdder> counts = new EnumMap<>(DiffType.class);
 
-        try {
-            IOUtils.writeLines(content, "\n", os);
-        } catch (IOException e) {
-            log.error("write content fail", e);
+        Differences() {
+            for (DiffType diffType : DiffType.values()) {
+                byType.put(diffType, new ConcurrentSkipListMap<>());
+                counts.put(diffType, new LongAdder());
+            }
         }
-    }
 
-    // According to dbName + table, get diffInfo;   用于关注core表，更加直观
-    public DifferenceInfo getDiffInfo(String dbName, String tableName) {
-        DifferenceInfo diffInfo = differences.entrySet().stream().
-                map(entry -> {
-                    DifferenceInfo differenceInfo = null;
-                    Map<String, DifferenceInfo> diffMap = entry.getValue();
+        void put(DiffType diffType, String key, DifferenceInfo differenceInfo) {
+            if (byType.get(diffType).put(key, differenceInfo) == null) {
+                counts.get(diffType).increment();
+            }
+        }
 
-                    if (entry.getKey() != DiffType.MISS_DATABASE) {
-                        differenceInfo = diffMap.get(buildKey(dbName, tableName));
-                    } else {
-                        differenceInfo = diffMap.get(buildKey(dbName, DBMissInfo.DB_MISS_TABLE));
-                    }
+        public Map<String, DifferenceInfo> get(DiffType diffType) {
+            return Collections.unmodifiableMap(byType.get(diffType));
+        }
 
-                    return differenceInfo;
-                }).filter(value -> value != null).findFirst().orElse(null);
+        // 有差异的 DiffType 及其数量，按 DiffType 顺序
+        public Map<DiffType, Integer> getCounts() {
+            Map<DiffType, Integer> res = new EnumMap<>(DiffType.class);
+            counts.forEach((diffType, count) -> {
+                if (count.sum() > 0) {
+                    res.put(diffType, count.intValue());
+                }
+            });
+            return res;
+        }
 
-        return diffInfo;
+        @Override
+        public String toString() {
+            return getCounts().toString();
+        }
     }
 
     private enum ResultType {
@@ -0,0 +1,192 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 一张 table 的完整差异主键列表，写入 diffSpillDir/db.table.diff.gz，供修复任务读取：
+ * 1. 内存中的 RecordContentDiffInfo 只保留少量样本，所有差异主键在这里落盘，对比不再因样本已满而提前结束
+ * 2. gzip 压缩的二进制记录：byte 差异类型 + short 主键列数 + 每列 (byte 值类型 + 值)，
+ *    值类型只区分 null / String / byte[]，读取后按列类型还原 (CheckpointStore.toPrimaryValue) 再作为 SQL 参数绑定
+ * 同一 table 的 range 并发写入，write 线程安全。resume 时追加写入，中断前最后一次 checkpoint 之后的主键可能重复。
+ * 可能被放弃的对比 (merge-join 降级) 先写入 newStaging 的暂存文件，成功后 commitTo 追加到 table 的 sink，失败时 discard。
+ */
+@Slf4j
+public class DiffSink implements AutoCloseable {
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte STRING_VALUE = 1;
+    private static final byte BYTES_VALUE = 2;
+
+    private final Path path;
+    private final boolean append;
+    private DataOutputStream out;
+    // 打开或写入失败后不再写入
+    private boolean failed;
+
+    private DiffSink(Path path, boolean append) {
+        this.path = path;
+        this.append = append;
+    }
+
+    // 文件在第一次写入时创建，没有差异的 table 不产生文件；非追加时删除上次运行留下的文件
+    public static DiffSink open(String dir, String dbName, String tableName, boolean append) {
+        DiffSink sink = new DiffSink(Paths.get(dir, DifferenceInfo.buildKey(dbName, tableName) + ".diff.gz"), append);
+        if (!append) {
+            try {
+                Files.deleteIfExists(sink.path);
+            } catch (IOException e) {
+                log.error("[DiffSink] delete stale spill file fail, path = {}", sink.path, e);
+            }
+        }
+        return sink;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // 写入失败后不再写入，已写入的部分仍可读取
+    public synchronized void write(DiffKind kind, List<Object> primaryValues) {
+        if (failed) {
+            return;
+        }
+        try {
+            if (out == null) {
+                Files.createDirectories(path.toAbsolutePath().getParent());
+                OutputStream file = append ?
+                        Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND) :
+                        Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                // 追加写入时文件为多个 gzip member，GZIPInputStream 可以连续读取
+                out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(file, 64 * 1024)));
+            }
+            out.writeByte(kind.code);
+            out.writeShort(primaryValues.size());
+            for (Object value : primaryValues) {
+                if (value == null) {
+                    out.writeByte(NULL_VALUE);
+                } else if (value instanceof byte[]) {
+                    out.writeByte(BYTES_VALUE);
+                    out.writeInt(((byte[]) value).length);
+                    out.write((byte[]) value);
+                } else {
+                    out.writeByte(STRING_VALUE);
+                    out.writeUTF(value.toString());
+                }
+            }
+        } catch (IOException e) {
+            log.error("[DiffSink] write spill file fail, path = {}", path, e);
+            failed = true;
+            closeQuietly();
+        }
+    }
+
+    // 与 table 的 sink 同目录的暂存文件，第一次写入时创建
+    public DiffSink newStaging() {
+        return new DiffSink(path.resolveSibling(path.getFileName() + "." + UUID.randomUUID() + ".tmp"), false);
+    }
+
+    // 暂存的差异主键按写入顺序追加到 target 并删除暂存文件；读取失败时 target 不再写入，差异主键文件不完整
+    public void commitTo(DiffSink target) {
+        close();
+        if (Files.exists(path)) {
+            try {
+                read(path, target::write);
+            } catch (IOException e) {
+                log.error("[DiffSink] commit staging spill file fail, path = {}, target = {}", path, target.path, e);
+                synchronized (target) {
+                    target.failed = true;
+                    target.closeQuietly();
+                }
+            }
+        }
+        discard();
+    }
+
+    // 丢弃暂存的差异主键
+    public void discard() {
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.error("[DiffSink] delete staging spill file fail, path = {}", path, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.error("[DiffSink] close spill file fail, path = {}", path, e);
+        }
+        out = null;
+    }
+
+    // 按写入顺序读取差异主键，值为 String / byte[] / null
+    public static void read(Path path, BiConsumer<DiffKind, List<Object>> consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+            while (true) {
+                int code = in.read();
+                if (code < 0) {
+                    return;
+                }
+                int colNum = in.readShort();
+                List<Object> primaryValues = Lists.newArrayListWithCapacity(colNum);
+                for (int i = 0; i < colNum; i++) {
+                    byte type = in.readByte();
+                    if (type == NULL_VALUE) {
+                        primaryValues.add(null);
+                    } else if (type == BYTES_VALUE) {
+                        byte[] bytes = new byte[in.readInt()];
+                        in.readFully(bytes);
+                        primaryValues.add(bytes);
+                    } else {
+                        primaryValues.add(in.readUTF());
+                    }
+                }
+                consumer.accept(DiffKind.of(code), primaryValues);
+            }
+        }
+    }
+
+    public enum DiffKind {
+        SOURCE_ONLY(1),
+        TARGET_ONLY(2),
+        // 主键相同、内容不同
+        SAME_PK_DIFF_VALUE(3);
+
+        private final int code;
+
+        DiffKind(int code) {
+            this.code = code;
+        }
+
+        static DiffKind of(int code) {
+            for (DiffKind kind : values()) {
+                if (kind.code == code) {
+                    return kind;
+                }
+            }
+            throw new IllegalStateException("unknown diff kind " + code);
+        }
+    }
+}
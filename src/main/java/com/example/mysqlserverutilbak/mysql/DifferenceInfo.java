@@ -1,9 +1,14 @@
 package com.example.mysqlserverutilbak.mysql;
 
+import com.google.common.collect.Lists;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.example.mysqlserverutilbak.mysql.DiffSink.*;
+
 @Slf4j
 public abstract class DifferenceInfo {
     private String dbName;
@@ -49,7 +54,8 @@ public abstract class DifferenceInfo {
         DIFF_FROM_RECORD_NUM("以下数据表记录总数存在差异"),
         DIFF_FROM_RECORD_CONTENT("以下数据表记录内容存在差异"),
         MISS_PRIMARY_KEY("以下数据表不存在primary key，无法对比记录内容"),
-        OUT_OF_LIMIT("以下数据表的记录总数超过最大限制，并未对比全部记录内容");
+        OUT_OF_LIMIT("以下数据表的记录总数超过最大限制，并未对比全部记录内容"),
+        SAMPLE_DIVERGENCE("以下数据表抽样对比存在差异，按样本估计的差异比例");
 
         private String titleContent;
 
@@ -57,6 +63,10 @@ public abstract class DifferenceInfo {
             this.titleContent = titleContent;
         }
 
+        public String getTitleContent() {
+            return titleContent;
+        }
+
         public String getTitle(String prefix){
             String diffTitleFormat = ">>>>>>>>>>>>>>>> " + prefix + " %s <<<<<<<<<<<<<<<<<<";
             return String.format(diffTitleFormat,titleContent);
@@ -166,13 +176,17 @@ public abstract class DifferenceInfo {
 
         private long sourceTotalCount;
         private long targetTotalCount;
+        // 记录总数为 information_schema.TABLES.TABLE_ROWS 估算值
+        private boolean estimated;
 
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder();
             sb.append(">>>>>>>>>>>>>>>> 数据库名称 = ").append(getDbName()).append(" 数据表名称 = ").append(getTableName()).
                     append(" 源数据表记录总数 = ").append(getSourceTotalCount()).append(" 目标数据表记录总数 = ").append(getTargetTotalCount());
-            log.info("countDiffToString string = {}", sb.toString());
+            if (estimated) {
+                sb.append(" (估算值)");
+            }
             return sb.toString();
         }
 
@@ -184,6 +198,14 @@ public abstract class DifferenceInfo {
             this.sourceTotalCount = sourceTotalCount;
         }
 
+        public boolean isEstimated() {
+            return estimated;
+        }
+
+        public void setEstimated(boolean estimated) {
+            this.estimated = estimated;
+        }
+
         public long getTargetTotalCount() {
             return targetTotalCount;
         }
@@ -195,9 +217,175 @@ public abstract class DifferenceInfo {
 
     // 5. [DIFF_FROM_RECORD_CONTENT]
     public static class RecordContentDiffInfo extends DifferenceInfo {
+        // diffInfo 不存储所有差异record，避免内存溢出
+        public static int RECORD_STORAGE_LIMIT = 20;
+
+        // 每类差异最多存储的 record 样本数
+        private final int sampleLimit;
+        // 完整的差异主键写入 sink，为 null 时样本存满后停止对比
+        private final DiffSink sink;
+        // 各类差异的准确条数，不受 sampleLimit 限制
+        private long sourceOnlyCount;
+        private long targetOnlyCount;
+        private long samePkDiffCount;
+
         public RecordContentDiffInfo(String dbName, String tableName) {
+            this(dbName, tableName, null, RECORD_STORAGE_LIMIT);
+        }
+
+        public RecordContentDiffInfo(String dbName, String tableName, DiffSink sink, int sampleLimit) {
             super.setDbName(dbName);
             super.setTableName(tableName);
+            this.sink = sink;
+            this.sampleLimit = sampleLimit;
+            this.recordsOnlyInSource = Lists.newArrayList();
+            this.recordsOnlyInTarget = Lists.newArrayList();
+            this.samePkDiffValues = Lists.newArrayList();
+        }
+
+        public void mergeRecordDiff(RowBatch sourceRecords, RowBatch targetRecords) {
+            mergeRecordDiff(sourceRecords, targetRecords, RowComparator.DEFAULT);
+        }
+
+        // 合并同一主键范围内 source / target records 的差异，按 comparator 比较同一主键的内容；只有存为样本的差异 record 才物化为 Record
+        public void mergeRecordDiff(RowBatch sourceRecords, RowBatch targetRecords, RowComparator comparator) {
+            PkIndex targetIndex = PkIndex.build(targetRecords, sourceRecords);
+
+            boolean[] targetMatched = new boolean[targetRecords.size()];
+            for (int row = 0; row < sourceRecords.size(); row++) {
+                int targetRow = targetIndex.find(sourceRecords, row);
+                if (targetRow < 0) {
+                    addSourceOnly(sourceRecords, row);
+                    continue;
+                }
+                targetMatched[targetRow] = true;
+                if (!sourceRecords.rowEquals(row, targetRecords, targetRow, comparator)) {
+                    addSamePkDiff(sourceRecords, row, targetRecords, targetRow);
+                }
+            }
+
+            for (int row = 0; row < targetRecords.size(); row++) {
+                if (!targetMatched[row]) {
+                    addTargetOnly(targetRecords, row);
+                }
+            }
+        }
+
+        public synchronized void addSourceOnly(RowBatch batch, int row) {
+            sourceOnlyCount++;
+            spill(DiffKind.SOURCE_ONLY, batch, row);
+            if (recordsOnlyInSource.size() < sampleLimit) {
+                recordsOnlyInSource.add(batch.toRecord(row));
+            }
+        }
+
+        public synchronized void addTargetOnly(RowBatch batch, int row) {
+            targetOnlyCount++;
+            spill(DiffKind.TARGET_ONLY, batch, row);
+            if (recordsOnlyInTarget.size() < sampleLimit) {
+                recordsOnlyInTarget.add(batch.toRecord(row));
+            }
+        }
+
+        public synchronized void addSamePkDiff(RowBatch sourceBatch, int sourceRow, RowBatch targetBatch, int targetRow) {
+            samePkDiffCount++;
+            spill(DiffKind.SAME_PK_DIFF_VALUE, sourceBatch, sourceRow);
+            if (samePkDiffValues.size() < sampleLimit) {
+                samePkDiffValues.add(Pair.of(sourceBatch.toRecord(sourceRow), targetBatch.toRecord(targetRow)));
+            }
+        }
+
+        public synchronized void addSourceOnly(Record record) {
+            sourceOnlyCount++;
+            spill(DiffKind.SOURCE_ONLY, record);
+            if (recordsOnlyInSource.size() < sampleLimit) {
+                recordsOnlyInSource.add(record);
+            }
+        }
+
+        public synchronized void addTargetOnly(Record record) {
+            targetOnlyCount++;
+            spill(DiffKind.TARGET_ONLY, record);
+            if (recordsOnlyInTarget.size() < sampleLimit) {
+                recordsOnlyInTarget.add(record);
+            }
+        }
+
+        public synchronized void addSamePkDiff(Pair<Record, Record> pair) {
+            samePkDiffCount++;
+            spill(DiffKind.SAME_PK_DIFF_VALUE, pair.getLeft());
+            if (samePkDiffValues.size() < sampleLimit) {
+                samePkDiffValues.add(pair);
+            }
+        }
+
+        private void spill(DiffKind kind, RowBatch batch, int row) {
+            if (sink == null) {
+                return;
+            }
+            List<Object> primaryValues = Lists.newArrayListWithCapacity(batch.getPrimaryColCount());
+            for (int i = 0; i < batch.getPrimaryColCount(); i++) {
+                primaryValues.add(batch.getPrimaryValue(row, i));
+            }
+            sink.write(kind, primaryValues);
+        }
+
+        private void spill(DiffKind kind, Record record) {
+            if (sink != null) {
+                sink.write(kind, record.getPrimaryColValues().stream().map(Pair::getLeft).collect(Collectors.toList()));
+            }
+        }
+
+        // 恢复 checkpoint 中记录的条数，样本由 add 方法计入，这里只补上未存为样本的部分
+        public synchronized void addCounts(long sourceOnlyCount, long targetOnlyCount, long samePkDiffCount) {
+            this.sourceOnlyCount += sourceOnlyCount;
+            this.targetOnlyCount += targetOnlyCount;
+            this.samePkDiffCount += samePkDiffCount;
+        }
+
+        // 合并同一 table 其他 range 的差异，各 range 并发调用；主键已由 range 写入 sink
+        public synchronized void mergeFrom(RecordContentDiffInfo other) {
+            synchronized (other) {
+                addWithinLimit(recordsOnlyInSource, other.recordsOnlyInSource);
+                addWithinLimit(recordsOnlyInTarget, other.recordsOnlyInTarget);
+                addWithinLimit(samePkDiffValues, other.samePkDiffValues);
+                sourceOnlyCount += other.sourceOnlyCount;
+                targetOnlyCount += other.targetOnlyCount;
+                samePkDiffCount += other.samePkDiffCount;
+            }
+        }
+
+        private <T> void addWithinLimit(List<T> to, List<T> from) {
+            for (int i = 0; i < from.size() && to.size() < sampleLimit; i++) {
+                to.add(from.get(i));
+            }
+        }
+
+        // 没有 sink 时已存储的差异 record 达到上限，停止继续对比；有 sink 时对比到结束
+        public synchronized boolean isFull() {
+            return sink == null && (recordsOnlyInSource.size() >= sampleLimit ||
+                    recordsOnlyInTarget.size() >= sampleLimit ||
+                    samePkDiffValues.size() >= sampleLimit);
+        }
+
+        public synchronized boolean hasDiff() {
+            return sourceOnlyCount > 0 || targetOnlyCount > 0 || samePkDiffCount > 0;
+        }
+
+        public synchronized long getSourceOnlyCount() {
+            return sourceOnlyCount;
+        }
+
+        public synchronized long getTargetOnlyCount() {
+            return targetOnlyCount;
+        }
+
+        public synchronized long getSamePkDiffCount() {
+            return samePkDiffCount;
+        }
+
+        public DiffSink getSink() {
+            return sink;
         }
 
         @Override
@@ -209,12 +397,17 @@ public abstract class DifferenceInfo {
         List<Record> recordsOnlyInTarget;
         List<Pair<Record, Record>> samePkDiffValues;
 
-
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder();
             sb.append(">>>>>>>>>>>>>>>> 数据库名称 = ").append(getDbName()).append(" 数据表名称 = ").append(getTableName()).append("\n");
 
+            sb.append(">>>>>>>>>>>>>>>> 差异总数: 仅source = ").append(getSourceOnlyCount()).
+                    append(", 内容不同 = ").append(getSamePkDiffCount()).
+                    append(", 仅target = ").append(getTargetOnlyCount()).append("\n");
+            if (sink != null) {
+                sb.append(">>>>>>>>>>>>>>>> 完整差异主键: ").append(sink.getPath()).append("\n");
+            }
             sb.append(">>>>>>>>>>>>>>>> 仅source数据源存在的记录").append("\n");
             getRecordsOnlyInSource().stream().forEach(record -> {
                 sb.append("[source only]").append(record.toString()).append("\n");
@@ -233,7 +426,6 @@ public abstract class DifferenceInfo {
 
             });
 
-            log.info("contentDiffToString string = {}", sb.toString());
             return sb.toString();
         }
 
@@ -283,9 +475,7 @@ public abstract class DifferenceInfo {
 
     // 7. [OUT_OF_LIMIT]
     public static class OutOfLimitInfo extends DifferenceInfo{
-        // 每次循环对比500条数据。1张数据表默认循环20次，对比1w条数据。超出1w条则注册OutOfLimitInfo
-        public static int RECORD_COMPARE_LIMIT = 20;
-
+        // ROW 模式下 range 的记录数超过 rowCompareLimit 时注册，默认不限制
         public OutOfLimitInfo(String dbName, String tableName) {
             super.setDbName(dbName);
             super.setTableName(tableName);
@@ -301,4 +491,97 @@ public abstract class DifferenceInfo {
             return buildKey(getDbName(), getTableName());
         }
     }
+
+    // 8. [SAMPLE_DIVERGENCE]
+    public static class SampleDiffInfo extends DifferenceInfo {
+        // 标准正态分布分位数的有理近似 (Abramowitz & Stegun 26.2.23)，误差 < 4.5e-4
+        private static final double[] QUANTILE_C = {2.515517, 0.802853, 0.010328};
+        private static final double[] QUANTILE_D = {1.432788, 0.189269, 0.001308};
+
+        // source 记录总数
+        private final long totalRows;
+        private final long sampledRows;
+        private final long diffRows;
+        private final double confidence;
+
+        public SampleDiffInfo(String dbName, String tableName, long totalRows, long sampledRows, long diffRows, double confidence) {
+            super.setDbName(dbName);
+            super.setTableName(tableName);
+            this.totalRows = totalRows;
+            this.sampledRows = sampledRows;
+            this.diffRows = diffRows;
+            this.confidence = confidence;
+        }
+
+        @Override
+        DiffType getDiffType() {
+            return DiffType.SAMPLE_DIVERGENCE;
+        }
+
+        public long getSampledRows() {
+            return sampledRows;
+        }
+
+        public long getDiffRows() {
+            return diffRows;
+        }
+
+        public double getEstimatedRate() {
+            return sampledRows == 0 ? 0 : (double) diffRows / sampledRows;
+        }
+
+        // 差异比例的单侧置信上限：没有差异时为 1 - (1 - confidence)^(1/n)，否则为 Wilson score 上限
+        public double getUpperBound() {
+            if (sampledRows == 0) {
+                return 1;
+            }
+            if (diffRows == 0) {
+                return 1 - Math.pow(1 - confidence, 1.0 / sampledRows);
+            }
+            double n = sampledRows;
+            double rate = getEstimatedRate();
+            double z = normalQuantile(confidence);
+            double center = rate + z * z / (2 * n);
+            double margin = z * Math.sqrt(rate * (1 - rate) / n + z * z / (4 * n * n));
+            return Math.min(1, (center + margin) / (1 + z * z / n));
+        }
+
+        static double normalQuantile(double probability) {
+            double tail = probability >= 0.5 ? 1 - probability : probability;
+            double t = Math.sqrt(-2 * Math.log(tail));
+            double z = t - (QUANTILE_C[0] + QUANTILE_C[1] * t + QUANTILE_C[2] * t * t) /
+                    (1 + QUANTILE_D[0] * t + QUANTILE_D[1] * t * t + QUANTILE_D[2] * t * t * t);
+            return probability >= 0.5 ? z : -z;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: sampledRows = %d, diffRows = %d, estimatedRate = %.4f%%, upperBound(%.2f%%) = %.4f%%, estimatedDiffRows = %d",
+                    buildKey(getDbName(), getTableName()), sampledRows, diffRows, getEstimatedRate() * 100, confidence * 100,
+                    getUpperBound() * 100, Math.round(getEstimatedRate() * totalRows));
+        }
+    }
+
+    // 从 checkpoint 恢复的差异，只保留输出内容
+    public static class RestoredDiffInfo extends DifferenceInfo {
+        private final DiffType diffType;
+        private final String content;
+
+        public RestoredDiffInfo(String dbName, String tableName, DiffType diffType, String content) {
+            super.setDbName(dbName);
+            super.setTableName(tableName);
+            this.diffType = diffType;
+            this.content = content;
+        }
+
+        @Override
+        DiffType getDiffType() {
+            return diffType;
+        }
+
+        @Override
+        public String toString() {
+            return content;
+        }
+    }
 }
@@ -0,0 +1,127 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.List;
+
+import static com.example.mysqlserverutilbak.mysql.DifferenceInfo.*;
+import static com.example.mysqlserverutilbak.mysql.DBQueryService.*;
+
+/**
+ * [MERGE_JOIN] 模式的 record content 对比：
+ * source / target 同时打开按主键排序的流式游标，按 sorted merge-join 逐条推进，
+ * 不再按批次构造 HashMap，也不再按 source 主键拼接 IN 查询 target，内存占用与 table 大小无关。
+ * 主键的 java 侧比较若与服务端排序不一致（检测到游标乱序），返回 false 由调用方降级为 ROW 模式。
+ */
+@Component
+@Slf4j
+public class MergeJoinRecordComparator {
+
+    @Autowired
+    private DataSource sourceDataSource;
+
+    @Autowired
+    private DataSource targetDataSource;
+
+    @Autowired
+    private DBQueryService DBQueryService;
+
+    public boolean compare(String dbName, String tableName, List<ColumnStructure> primaryColStructures, PkRange range, BatchSizer batchSizer,
+                           RowComparator rowComparator, RecordContentDiffInfo diffInfo) {
+        // 流式游标按 fetch size 分批读取，批次大小取 table 当前的估计值
+        int batchSize = batchSizer.getBatchSize();
+        try {
+            Long mergedCount = DBQueryService.streamRecordsInRange(sourceDataSource, dbName, tableName, primaryColStructures, range, batchSize,
+                    sourceCursor -> DBQueryService.streamRecordsInRange(targetDataSource, dbName, tableName, primaryColStructures, range, batchSize,
+                            targetCursor -> merge(sourceCursor, targetCursor, rowComparator, diffInfo)));
+            if (mergedCount == null) {
+                throw new IllegalStateException(String.format("merge join query fail, dbName = %s, tableName = %s", dbName, tableName));
+            }
+            log.info("[MERGE_JOIN] compare finish, dbName = {}, tableName = {}, range = {}, mergedCount = {}", dbName, tableName, range, mergedCount);
+            return true;
+        } catch (PkOrderException | ClassCastException e) {
+            log.warn("[MERGE_JOIN] primary key order differ from server, dbName = {}, tableName = {}, {}", dbName, tableName, e.getMessage());
+            return false;
+        }
+    }
+
+    private long merge(RowBatchCursor sourceCursor, RowBatchCursor targetCursor, RowComparator rowComparator, RecordContentDiffInfo diffInfo) {
+        long mergedCount = 0;
+        try {
+            OrderedCursor source = new OrderedCursor(sourceCursor);
+            OrderedCursor target = new OrderedCursor(targetCursor);
+            while ((source.hasCurrent() || target.hasCurrent()) && !diffInfo.isFull()) {
+                int res = !source.hasCurrent() ? 1 : !target.hasCurrent() ? -1 :
+                        source.batch.comparePk(source.row, target.batch, target.row);
+                if (res < 0) {
+                    diffInfo.addSourceOnly(source.batch, source.row);
+                    source.advance();
+                } else if (res > 0) {
+                    diffInfo.addTargetOnly(target.batch, target.row);
+                    target.advance();
+                } else {
+                    if (!source.batch.rowEquals(source.row, target.batch, target.row, rowComparator)) {
+                        diffInfo.addSamePkDiff(source.batch, source.row, target.batch, target.row);
+                    }
+                    source.advance();
+                    target.advance();
+                }
+                mergedCount++;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("merge join read record fail", e);
+        }
+        return mergedCount;
+    }
+
+    // 当前 batch 内的位置，并校验游标按 RowBatch.comparePk 严格递增
+    private static class OrderedCursor {
+        private final RowBatchCursor cursor;
+        private RowBatch batch;
+        private int row;
+
+        OrderedCursor(RowBatchCursor cursor) throws SQLException {
+            this.cursor = cursor;
+            this.batch = cursor.next();
+            this.row = 0;
+        }
+
+        boolean hasCurrent() {
+            return row < batch.size();
+        }
+
+        void advance() throws SQLException {
+            row++;
+            if (row < batch.size()) {
+                checkOrder(batch.comparePk(row - 1, batch, row));
+                return;
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            // RowBatchCursor 交替复用两个 batch，切换后上一批仍可用于校验顺序
+            RowBatch previous = batch;
+            batch = cursor.next();
+            row = 0;
+            if (!batch.isEmpty()) {
+                checkOrder(previous.comparePk(previous.size() - 1, batch, 0));
+            }
+        }
+
+        private void checkOrder(int res) {
+            if (res >= 0) {
+                throw new PkOrderException("cursor row " + row + " is not after previous row");
+            }
+        }
+    }
+
+    private static class PkOrderException extends RuntimeException {
+        PkOrderException(String message) {
+            super(message);
+        }
+    }
+}
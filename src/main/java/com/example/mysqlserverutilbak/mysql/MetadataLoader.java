@@ -0,0 +1,204 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static com.example.mysqlserverutilbak.mysql.util.SqlUtils.executeStreamingQuery;
+
+/**
+ * 一次性加载 datasource 下所有未排除 db 的元数据 (db -> table -> columns)，替代逐个 db 的 show tables / 分页查询 columns。
+ * 每个 datasource 对 information_schema 的 SCHEMATA、TABLES、COLUMNS、KEY_COLUMN_USAGE 各执行一次流式查询，
+ * excludeDataBase / excludeDBAndTable 在服务端过滤；source 与 target 并发加载。
+ * 任一查询失败时 load 抛出异常，不以不完整的元数据继续校验；增量校验按 table 加载单张 table 的元数据。
+ */
+@Component
+@Slf4j
+public class MetadataLoader {
+
+    private static final String SHOW_SCHEMATA = "SELECT SCHEMA_NAME FROM information_schema.SCHEMATA";
+
+    private static final String SHOW_TABLES = "SELECT TABLE_SCHEMA, TABLE_NAME, ENGINE, TABLE_ROWS, AVG_ROW_LENGTH FROM information_schema.TABLES";
+
+    private static final String SHOW_COLUMNS = "SELECT * FROM information_schema.COLUMNS";
+
+    private static final String SHOW_PRIMARY_KEY_COLUMNS = "SELECT TABLE_SCHEMA, TABLE_NAME, COLUMN_NAME FROM information_schema.KEY_COLUMN_USAGE";
+
+    @Autowired
+    private ValidateConfig config;
+
+    // source 与 target 并发加载，left 为 source，right 为 target
+    public Pair<SchemaMetadata, SchemaMetadata> load(DataSource sourceDataSource, DataSource targetDataSource) {
+        CompletableFuture<SchemaMetadata> source = CompletableFuture.supplyAsync(() -> load(sourceDataSource));
+        CompletableFuture<SchemaMetadata> target = CompletableFuture.supplyAsync(() -> load(targetDataSource));
+        return Pair.of(source.join(), target.join());
+    }
+
+    public SchemaMetadata load(DataSource dataSource) {
+        SchemaMetadata metadata = load(dataSource, args -> buildExcludeCondition("TABLE_SCHEMA", "TABLE_NAME", args),
+                args -> buildExcludeCondition("SCHEMA_NAME", null, args));
+        log.info("[MetadataLoader] db count = {}, table count = {}", metadata.tables.size(),
+                metadata.tables.values().stream().mapToInt(Map::size).sum());
+        return metadata;
+    }
+
+    // 只加载一张 table 的元数据，table 不存在时 getColumns 返回 null
+    public SchemaMetadata load(DataSource dataSource, String dbName, String tableName) {
+        return load(dataSource, args -> buildTableCondition("TABLE_SCHEMA", "TABLE_NAME", dbName, tableName, args),
+                args -> buildTableCondition("SCHEMA_NAME", null, dbName, null, args));
+    }
+
+    // 任一查询失败时抛出 IllegalStateException，不返回不完整的元数据
+    private SchemaMetadata load(DataSource dataSource, Function<List<Object>, String> tableCondition, Function<List<Object>, String> schemaCondition) {
+        SchemaMetadata metadata = new SchemaMetadata();
+
+        // 1. 未排除的 db，包括没有 table 的 db
+        List<Object> args = Lists.newArrayList();
+        streamingQuery(dataSource, SHOW_SCHEMATA + schemaCondition.apply(args), args, (rs) -> metadata.tables.put(rs.getString(1), Maps.newHashMap()));
+
+        // 2. table 及其存储引擎、information_schema 统计的行数、平均行长度
+        args = Lists.newArrayList();
+        streamingQuery(dataSource, SHOW_TABLES + tableCondition.apply(args), args, (rs) -> {
+            String dbName = rs.getString("TABLE_SCHEMA");
+            String tableName = rs.getString("TABLE_NAME");
+            Map<String, Set<ColumnStructure>> tables = metadata.tables.get(dbName);
+            if (tables != null) {
+                tables.put(tableName, Sets.newHashSet());
+                metadata.tableRows.computeIfAbsent(dbName, key -> Maps.newHashMap()).put(tableName, rs.getLong("TABLE_ROWS"));
+                metadata.avgRowLength.computeIfAbsent(dbName, key -> Maps.newHashMap()).put(tableName, rs.getLong("AVG_ROW_LENGTH"));
+                metadata.engines.computeIfAbsent(dbName, key -> Maps.newHashMap()).put(tableName, rs.getString("ENGINE"));
+            }
+        });
+
+        // 3. 所有 table 的 columns
+        args = Lists.newArrayList();
+        streamingQuery(dataSource, SHOW_COLUMNS + tableCondition.apply(args), args, (rs) -> {
+            Set<ColumnStructure> columns = metadata.getColumns(rs.getString("TABLE_SCHEMA"), rs.getString("TABLE_NAME"));
+            if (columns != null) {
+                columns.add(DBQueryService.toColumnStructure(rs));
+            }
+        });
+
+        // 4. 主键列在 PRIMARY 索引内的顺序
+        args = Lists.newArrayList();
+        String condition = tableCondition.apply(args);
+        String sql = SHOW_PRIMARY_KEY_COLUMNS + condition + (condition.isEmpty() ? " WHERE" : " AND") +
+                " CONSTRAINT_NAME = 'PRIMARY' ORDER BY TABLE_SCHEMA, TABLE_NAME, ORDINAL_POSITION";
+        streamingQuery(dataSource, sql, args, (rs) -> metadata.primaryKeyOrder.computeIfAbsent(rs.getString("TABLE_SCHEMA"), key -> Maps.newHashMap()).
+                computeIfAbsent(rs.getString("TABLE_NAME"), key -> Lists.newArrayList()).
+                add(rs.getString("COLUMN_NAME")));
+        return metadata;
+    }
+
+    private void streamingQuery(DataSource dataSource, String sql, List<Object> args, RowHandler handler) {
+        Boolean finished = executeStreamingQuery(dataSource, sql, (rs) -> {
+            try {
+                while (rs.next()) {
+                    handler.handle(rs);
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("[MetadataLoader] read metadata fail, sql = " + sql, e);
+            }
+            return Boolean.TRUE;
+        }, args.toArray());
+        if (finished == null) {
+            throw new IllegalStateException("[MetadataLoader] query metadata fail, sql = " + sql);
+        }
+    }
+
+    // WHERE schemaColumn = ? AND tableColumn = ?
+    private static String buildTableCondition(String schemaColumn, String tableColumn, String dbName, String tableName, List<Object> args) {
+        args.add(dbName);
+        if (tableColumn == null) {
+            return " WHERE " + schemaColumn + " = ?";
+        }
+        args.add(tableName);
+        return " WHERE " + schemaColumn + " = ? AND " + tableColumn + " = ?";
+    }
+
+    // WHERE schemaColumn NOT IN (?...) AND (schemaColumn, tableColumn) NOT IN ((?, ?)...)，没有排除项时返回空串
+    private String buildExcludeCondition(String schemaColumn, String tableColumn, List<Object> args) {
+        List<String> conditions = Lists.newArrayList();
+        Set<String> excludeDataBase = config.getExcludeDataBase();
+        if (excludeDataBase != null && !excludeDataBase.isEmpty()) {
+            conditions.add(schemaColumn + " NOT IN (" + String.join(", ", Collections.nCopies(excludeDataBase.size(), "?")) + ")");
+            args.addAll(excludeDataBase);
+        }
+        if (tableColumn != null && config.getExcludeDBAndTable() != null) {
+            int pairNum = 0;
+            for (Map.Entry<String, Set<String>> entry : config.getExcludeDBAndTable().entrySet()) {
+                if (entry.getValue() == null || excludeDataBase != null && excludeDataBase.contains(entry.getKey())) {
+                    continue;
+                }
+                for (String tableName : entry.getValue()) {
+                    args.add(entry.getKey());
+                    args.add(tableName);
+                    pairNum++;
+                }
+            }
+            if (pairNum > 0) {
+                conditions.add("(" + schemaColumn + ", " + tableColumn + ") NOT IN (" + String.join(", ", Collections.nCopies(pairNum, "(?, ?)")) + ")");
+            }
+        }
+        return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+    }
+
+    @FunctionalInterface
+    private interface RowHandler {
+        void handle(ResultSet rs) throws SQLException;
+    }
+
+    // 一个 datasource 的元数据，加载完成后只读
+    public static class SchemaMetadata {
+        // db -> table -> columns
+        private final Map<String, Map<String, Set<ColumnStructure>>> tables = Maps.newHashMap();
+        private final Map<String, Map<String, Long>> tableRows = Maps.newHashMap();
+        private final Map<String, Map<String, Long>> avgRowLength = Maps.newHashMap();
+        private final Map<String, Map<String, List<String>>> primaryKeyOrder = Maps.newHashMap();
+        private final Map<String, Map<String, String>> engines = Maps.newHashMap();
+
+        public Set<String> getDatabases() {
+            return tables.keySet();
+        }
+
+        public Set<String> getTables(String dbName) {
+            return tables.getOrDefault(dbName, Collections.emptyMap()).keySet();
+        }
+
+        // table 不存在时返回 null
+        public Set<ColumnStructure> getColumns(String dbName, String tableName) {
+            return tables.getOrDefault(dbName, Collections.emptyMap()).get(tableName);
+        }
+
+        public List<ColumnStructure> getPrimaryColStructures(String dbName, String tableName) {
+            Set<ColumnStructure> columns = getColumns(dbName, tableName);
+            return columns == null ? Collections.emptyList() : DBQueryService.orderPrimaryColStructures(columns,
+                    primaryKeyOrder.getOrDefault(dbName, Collections.emptyMap()).get(tableName));
+        }
+
+        // information_schema 的估算值，未统计时为 0
+        public long getTableRows(String dbName, String tableName) {
+            return tableRows.getOrDefault(dbName, Collections.emptyMap()).getOrDefault(tableName, 0L);
+        }
+
+        public long getAvgRowLength(String dbName, String tableName) {
+            return avgRowLength.getOrDefault(dbName, Collections.emptyMap()).getOrDefault(tableName, 0L);
+        }
+
+        // view 的 ENGINE 为 null
+        public String getEngine(String dbName, String tableName) {
+            return engines.getOrDefault(dbName, Collections.emptyMap()).get(tableName);
+        }
+    }
+}
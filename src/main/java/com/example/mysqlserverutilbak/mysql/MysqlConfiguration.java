@@ -2,16 +2,22 @@ package com.example.mysqlserverutilbak.mysql;
 
 import com.alibaba.druid.pool.DruidDataSourceFactory;
 import com.alibaba.fastjson.JSONObject;
+import com.example.mysqlserverutilbak.mysql.util.AdmissionController;
+import com.example.mysqlserverutilbak.mysql.util.SqlUtils;
+import com.example.mysqlserverutilbak.mysql.util.ThrottleConfig;
+import com.github.shyiko.mysql.binlog.BinaryLogClient;
 import com.google.common.io.CharStreams;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 
 import javax.sql.DataSource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URI;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -22,12 +28,33 @@ import java.util.stream.Collectors;
 public class MysqlConfiguration {
     @Bean("sourceDataSource")
     public DataSource getSourceDataSource() {
-        return getDataSource(getConfigChild("source"));
+        DataSource dataSource = getDataSource(getConfigChild("source"));
+        registerAdmissionController("source", dataSource, getValidateConfig().getSourceThrottle());
+        return dataSource;
     }
 
     @Bean("targetDataSource")
     public DataSource getTargetDataSource() {
-        return getDataSource(getConfigChild("target"));
+        DataSource dataSource = getDataSource(getConfigChild("target"));
+        registerAdmissionController("target", dataSource, getValidateConfig().getTargetThrottle());
+        return dataSource;
+    }
+
+    // 跟随 source binlog 的客户端，仅 INCREMENTAL 模式下连接
+    @Lazy
+    @Bean("sourceBinlogClient")
+    public BinaryLogClient getSourceBinlogClient() {
+        JSONObject conf = getConfigChild("source");
+        // jdbc:mysql://host:port?...
+        URI uri = URI.create(StringUtils.removeStart(conf.getString("url"), "jdbc:"));
+        return new BinaryLogClient(uri.getHost(), uri.getPort() > 0 ? uri.getPort() : 3306, conf.getString("username"), conf.getString("password"));
+    }
+
+    // SqlUtils 的查询经过准入控制，限制对线上库的并发与读取速率
+    private void registerAdmissionController(String name, DataSource dataSource, ThrottleConfig throttleConfig) {
+        if (dataSource != null && throttleConfig != null) {
+            SqlUtils.registerAdmissionController(dataSource, new AdmissionController(name, dataSource, throttleConfig));
+        }
     }
 
     private DataSource getDataSource(JSONObject conf) {
@@ -0,0 +1,129 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.example.mysqlserverutilbak.mysql.util.SqlSession;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.mysqlserverutilbak.mysql.Record.*;
+
+/**
+ * 按主键顺序分页读取 range 内的 source records 及其 target 对应 records，读取与对比重叠执行：
+ * 1. source 会话线程按 keyset 依次读取 source 页，每读到一页就在 target 会话线程上提交对应主键的查询
+ * 2. 每页的记录数由 BatchSizer 按 table 的行长度与读取耗时调整
+ * 3. 页放入容量为 prefetchPages 的队列，队列满时暂停读取，内存中至多 prefetchPages + 2 页 (队列、对比中、等待入队各一)
+ * 4. 调用方 next 取出第 N 页对比时，source 正在读取第 N+1 页，target 正在查询第 N+1 页的主键
+ * 5. snapshot 时 source、target 会话在第一次查询前各自开启一致性快照，整个 range 读取同一时刻的数据
+ * 读取 maxRows 条或 source 页不足请求的条数时结束。
+ */
+@Slf4j
+public class PageReader implements AutoCloseable {
+
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final SqlSession sourceSession;
+    private final SqlSession targetSession;
+    // 页按读取顺序排列，null 表示读取结束
+    private final BlockingQueue<CompletableFuture<Page>> pages;
+    private volatile boolean closed;
+    private boolean exhausted;
+
+    PageReader(DBQueryService DBQueryService, DataSource sourceDataSource, DataSource targetDataSource, String dbName, String tableName,
+               List<ColumnStructure> primaryColStructures, PkRange range, BatchSizer batchSizer, int prefetchPages, long maxRows, boolean snapshot) {
+        this.sourceSession = SqlSession.open(sourceDataSource);
+        this.targetSession = SqlSession.open(targetDataSource);
+        this.pages = new ArrayBlockingQueue<>(Math.max(prefetchPages, 1));
+        if (snapshot) {
+            // 会话线程按提交顺序执行，target 的快照先于 target 的任何查询
+            targetSession.submit(SqlSession::startSnapshot);
+        }
+        sourceSession.submit(session -> {
+            if (snapshot) {
+                session.startSnapshot();
+            }
+            PrimaryKeys lastPk = range.getLower();
+            try {
+                for (long readRows = 0; readRows < maxRows && !closed; ) {
+                    int pageSize = batchSizer.getBatchSize();
+                    long start = System.currentTimeMillis();
+                    RowBatch sourceRecords = DBQueryService.queryRecordsInRange(session, dbName, tableName, primaryColStructures,
+                            new PkRange(lastPk, range.getUpper()), pageSize);
+                    batchSizer.record(sourceRecords.size(), sourceRecords.getByteSize(), System.currentTimeMillis() - start);
+                    if (sourceRecords.isEmpty()) {
+                        break;
+                    }
+                    readRows += sourceRecords.size();
+                    boolean full = sourceRecords.size() == pageSize;
+                    lastPk = sourceRecords.primaryKeysAt(sourceRecords.size() - 1);
+                    PrimaryKeys pageLastPk = lastPk;
+                    if (!offer(targetSession.submit(target -> new Page(sourceRecords,
+                            DBQueryService.queryTargetRecords(target, dbName, tableName, primaryColStructures, sourceRecords), pageLastPk, full))) || !full) {
+                        break;
+                    }
+                }
+                offer(CompletableFuture.completedFuture(null));
+            } catch (Exception e) {
+                CompletableFuture<Page> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                offer(failed);
+            }
+            return null;
+        });
+    }
+
+    // 下一页，读取结束时返回 null；读取失败时抛出异常
+    public Page next() {
+        if (exhausted) {
+            return null;
+        }
+        try {
+            Page page = pages.take().join();
+            exhausted = page == null;
+            return page;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("read page interrupted", e);
+        }
+    }
+
+    // 队列满时等待调用方取走，close 后放弃
+    private boolean offer(CompletableFuture<Page> page) {
+        try {
+            while (!closed) {
+                if (pages.offer(page, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    // 停止预取，等待正在执行的查询结束后归还连接
+    @Override
+    public void close() {
+        closed = true;
+        pages.clear();
+        sourceSession.close();
+        targetSession.close();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Page {
+        private final RowBatch sourceRecords;
+        private final RowBatch targetRecords;
+        // source 页最后一条记录的主键
+        private final PrimaryKeys lastPk;
+        // source 页为请求的条数，range 内可能还有记录
+        private final boolean full;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.example.mysqlserverutilbak.mysql.util.ByteArena;
+import com.example.mysqlserverutilbak.mysql.util.LongIntHashMap;
+
+/**
+ * RowBatch 的主键索引，主键值 -> batch 中的 row，build / find 过程不为单条记录分配对象：
+ * 1. 单列整数主键：LongIntHashMap
+ * 2. 复合主键 / 非整数主键：规范化 byte[] 编码存入连续的 arena，并预先计算 64 位 hash，开放寻址查找
+ */
+public abstract class PkIndex {
+
+    // 对 indexed 建立索引，probe 为查找时使用的 batch
+    public static PkIndex build(RowBatch indexed, RowBatch probe) {
+        if (indexed.isSingleLongPk() && probe.isSingleLongPk()) {
+            return new LongPkIndex(indexed);
+        }
+        return new EncodedPkIndex(indexed);
+    }
+
+    // probe 第 row 条记录的主键在 indexed 中的位置，不存在返回 -1
+    public abstract int find(RowBatch probe, int row);
+
+    private static class LongPkIndex extends PkIndex {
+        private final LongIntHashMap rows;
+
+        LongPkIndex(RowBatch indexed) {
+            this.rows = new LongIntHashMap(indexed.size());
+            for (int row = 0; row < indexed.size(); row++) {
+                rows.put(indexed.getPrimaryLong(row), row);
+            }
+        }
+
+        @Override
+        public int find(RowBatch probe, int row) {
+            return rows.get(probe.getPrimaryLong(row));
+        }
+    }
+
+    private static class EncodedPkIndex extends PkIndex {
+        private final ByteArena arena;
+        // offsets[row] ~ offsets[row + 1] 为第 row 条记录的主键编码在 arena 中的位置
+        private final int[] offsets;
+        private final long[] hashes;
+        // 存储 row + 1，0 表示空槽
+        private final int[] slots;
+        private final int mask;
+        // 查找时的编码缓冲区，复用
+        private final ByteArena scratch = new ByteArena(64);
+
+        EncodedPkIndex(RowBatch indexed) {
+            int size = indexed.size();
+            this.arena = new ByteArena(size * 16);
+            this.offsets = new int[size + 1];
+            this.hashes = new long[size];
+            this.slots = new int[Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1];
+            this.mask = slots.length - 1;
+            for (int row = 0; row < size; row++) {
+                indexed.encodePk(row, arena);
+                offsets[row + 1] = arena.size();
+                hashes[row] = arena.hash64(offsets[row], offsets[row + 1] - offsets[row]);
+                int slot = (int) hashes[row] & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = row + 1;
+            }
+        }
+
+        // 主键重复时（理论上不存在）返回任意一条，与 HashMap 覆盖语义无差别
+        @Override
+        public int find(RowBatch probe, int row) {
+            scratch.reset();
+            probe.encodePk(row, scratch);
+            long hash = scratch.hash64(0, scratch.size());
+            for (int slot = (int) hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+                int indexedRow = slots[slot] - 1;
+                if (hashes[indexedRow] == hash && arena.rangeEquals(offsets[indexedRow],
+                        offsets[indexedRow + 1] - offsets[indexedRow], scratch, 0, scratch.size())) {
+                    return indexedRow;
+                }
+            }
+            return -1;
+        }
+    }
+}
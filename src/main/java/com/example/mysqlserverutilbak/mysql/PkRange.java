@@ -0,0 +1,33 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import static com.example.mysqlserverutilbak.mysql.Record.*;
+
+/**
+ * 主键范围 (lower, upper]，按主键索引顺序比较。
+ * lower / upper 为 null 时表示该侧无边界，PkRange.ALL 即整张 table。
+ */
+public class PkRange {
+    public static final PkRange ALL = new PkRange(null, null);
+
+    private final PrimaryKeys lower;
+    private final PrimaryKeys upper;
+
+    public PkRange(PrimaryKeys lower, PrimaryKeys upper) {
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    public PrimaryKeys getLower() {
+        return lower;
+    }
+
+    public PrimaryKeys getUpper() {
+        return upper;
+    }
+
+    @Override
+    public String toString() {
+        return "(" + (lower == null ? "-∞" : lower.getValues().toString()) + ", " +
+                (upper == null ? "+∞" : upper.getValues().toString()) + "]";
+    }
+}
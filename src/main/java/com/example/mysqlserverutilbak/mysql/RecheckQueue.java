@@ -0,0 +1,183 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static com.example.mysqlserverutilbak.mysql.DifferenceInfo.*;
+
+/**
+ * 差异登记前的延迟复核，过滤对比期间正常变更 (复制延迟、进行中的事务) 造成的差异：
+ * 1. table 对比完成后，差异主键等待 recheckDelayMillis 再按主键重新查询 source / target 对比
+ * 2. 每轮只复核上一轮仍不一致的主键，一致的主键不再登记；recheckRounds 轮后仍不一致的主键登记为差异
+ * 3. 差异主键来自 DiffSink 落盘文件，没有 sink 时来自 diffInfo 的样本；差异数超过 recheckMaxKeys 或样本不完整时不复核
+ * 复核在单独的调度线程上执行，不占用对比线程；复核失败时按复核前的差异登记。默认不复核，recheckDelayMillis > 0 时启用。
+ */
+@Component
+@Slf4j
+public class RecheckQueue {
+
+    private static final int RECHECK_THREADS = 4;
+    // 每次按主键查询的主键数
+    private static final int RECHECK_CHUNK = 1024;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(RECHECK_THREADS,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("RecheckQueue-%d").build());
+
+    @Autowired
+    private ValidateConfig config;
+
+    @Autowired
+    private DataSource sourceDataSource;
+
+    @Autowired
+    private DataSource targetDataSource;
+
+    @Autowired
+    private DBQueryService DBQueryService;
+
+    public boolean isEnabled() {
+        return config.getConsistency().getRecheckDelayMillis() > 0;
+    }
+
+    // 复核完成后以复核结果回调 done，所有差异均已消失时结果的 hasDiff 为 false；不复核时直接以原 diffInfo 回调
+    public void submit(RecordContentDiffInfo diffInfo, List<ColumnStructure> primaryColStructures, RowComparator rowComparator,
+                       Consumer<RecordContentDiffInfo> done) {
+        List<List<Object>> keys = collectKeys(diffInfo, primaryColStructures);
+        if (keys == null) {
+            done.accept(diffInfo);
+            return;
+        }
+        Recheck recheck = new Recheck(diffInfo, primaryColStructures, rowComparator, done);
+        schedule(recheck, keys, 1);
+    }
+
+    private void schedule(Recheck recheck, List<List<Object>> keys, int round) {
+        SCHEDULER.schedule(() -> recheck(recheck, keys, round), config.getConsistency().getRecheckDelayMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void recheck(Recheck recheck, List<List<Object>> keys, int round) {
+        RecordContentDiffInfo original = recheck.original;
+        String dbName = original.getDbName();
+        String tableName = original.getTableName();
+        boolean lastRound = round >= config.getConsistency().getRecheckRounds();
+        RecordContentDiffInfo result;
+        try {
+            List<List<Object>> remaining = Lists.newArrayList();
+            // 仍不一致的 records，最后一轮全部查询完成后再写入新的 sink，复核失败时保留复核前的差异主键文件
+            RecordContentDiffInfo stillDiff = new RecordContentDiffInfo(dbName, tableName, null, Integer.MAX_VALUE);
+            for (int from = 0; from < keys.size(); from += RECHECK_CHUNK) {
+                List<List<Object>> chunk = keys.subList(from, Math.min(keys.size(), from + RECHECK_CHUNK));
+                RecordContentDiffInfo chunkDiff = recheckChunk(dbName, tableName, recheck.primaryColStructures, recheck.rowComparator, chunk);
+                chunkDiff.getRecordsOnlyInSource().forEach(record -> remaining.add(primaryValues(record)));
+                chunkDiff.getRecordsOnlyInTarget().forEach(record -> remaining.add(primaryValues(record)));
+                chunkDiff.getSamePkDiffValues().forEach(pair -> remaining.add(primaryValues(pair.getLeft())));
+                if (lastRound) {
+                    stillDiff.mergeFrom(chunkDiff);
+                }
+            }
+            log.info("[RECHECK] dbName = {}, tableName = {}, round = {}, rechecked = {}, remaining = {}",
+                    dbName, tableName, round, keys.size(), remaining.size());
+            if (!lastRound && !remaining.isEmpty()) {
+                schedule(recheck, remaining, round + 1);
+                return;
+            }
+            result = newConfirmed(original);
+            stillDiff.getRecordsOnlyInSource().forEach(result::addSourceOnly);
+            stillDiff.getRecordsOnlyInTarget().forEach(result::addTargetOnly);
+            stillDiff.getSamePkDiffValues().forEach(result::addSamePkDiff);
+            if (result.getSink() != null) {
+                result.getSink().close();
+            }
+        } catch (Exception e) {
+            log.error("[RECHECK] recheck fail, register unconfirmed diff, dbName = {}, tableName = {}", dbName, tableName, e);
+            result = original;
+        }
+        recheck.done.accept(result);
+    }
+
+    // 按主键重新查询 source / target 对比，返回的 diffInfo 保留全部仍不一致的 records
+    RecordContentDiffInfo recheckChunk(String dbName, String tableName, List<ColumnStructure> primaryColStructures, RowComparator rowComparator,
+                                       List<List<Object>> chunk) {
+        RecordContentDiffInfo chunkDiff = new RecordContentDiffInfo(dbName, tableName, null, chunk.size());
+        chunkDiff.mergeRecordDiff(
+                DBQueryService.queryRecordsByPrimaryValues(sourceDataSource, dbName, tableName, primaryColStructures, chunk),
+                DBQueryService.queryRecordsByPrimaryValues(targetDataSource, dbName, tableName, primaryColStructures, chunk),
+                rowComparator);
+        return chunkDiff;
+    }
+
+    private RecordContentDiffInfo newConfirmed(RecordContentDiffInfo original) {
+        DiffSink sink = original.getSink() == null || StringUtils.isEmpty(config.getDiffSpillDir()) ? null :
+                DiffSink.open(config.getDiffSpillDir(), original.getDbName(), original.getTableName(), false);
+        return new RecordContentDiffInfo(original.getDbName(), original.getTableName(), sink, RecordContentDiffInfo.RECORD_STORAGE_LIMIT);
+    }
+
+    // 全部差异主键，不复核时返回 null
+    private List<List<Object>> collectKeys(RecordContentDiffInfo diffInfo, List<ColumnStructure> primaryColStructures) {
+        long diffCount = diffInfo.getSourceOnlyCount() + diffInfo.getTargetOnlyCount() + diffInfo.getSamePkDiffCount();
+        if (diffCount > config.getConsistency().getRecheckMaxKeys()) {
+            log.info("[RECHECK] too many diffs to recheck, dbName = {}, tableName = {}, diffCount = {}",
+                    diffInfo.getDbName(), diffInfo.getTableName(), diffCount);
+            return null;
+        }
+        List<List<Object>> keys = Lists.newArrayList();
+        if (diffInfo.getSink() != null) {
+            try {
+                // sink 中的主键值为 String，按列类型还原后绑定，避免与数值列按 DOUBLE 比较
+                DiffSink.read(diffInfo.getSink().getPath(), (kind, primaryValues) -> keys.add(toPrimaryValues(primaryValues, primaryColStructures)));
+            } catch (IOException e) {
+                log.error("[RECHECK] read spill file fail, path = {}", diffInfo.getSink().getPath(), e);
+                return null;
+            }
+        } else {
+            // 没有 sink 时样本存满即停止对比，样本未存满时就是全部差异
+            diffInfo.getRecordsOnlyInSource().forEach(record -> keys.add(primaryValues(record)));
+            diffInfo.getRecordsOnlyInTarget().forEach(record -> keys.add(primaryValues(record)));
+            diffInfo.getSamePkDiffValues().forEach(pair -> keys.add(primaryValues(pair.getLeft())));
+        }
+        // sink 写入失败或样本已满时主键不完整
+        return keys.size() < diffCount ? null : keys;
+    }
+
+    private static List<Object> toPrimaryValues(List<Object> values, List<ColumnStructure> primaryColStructures) {
+        List<Object> primaryValues = Lists.newArrayListWithCapacity(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            Object value = values.get(i);
+            primaryValues.add(value instanceof String ? CheckpointStore.toPrimaryValue((String) value, primaryColStructures.get(i)) : value);
+        }
+        return primaryValues;
+    }
+
+    private static List<Object> primaryValues(Record record) {
+        return record.getPrimaryColValues().stream().map(Pair::getLeft).collect(Collectors.toList());
+    }
+
+    private static class Recheck {
+        private final RecordContentDiffInfo original;
+        private final List<ColumnStructure> primaryColStructures;
+        private final RowComparator rowComparator;
+        private final Consumer<RecordContentDiffInfo> done;
+
+        Recheck(RecordContentDiffInfo original, List<ColumnStructure> primaryColStructures, RowComparator rowComparator,
+                Consumer<RecordContentDiffInfo> done) {
+            this.original = original;
+            this.primaryColStructures = primaryColStructures;
+            this.rowComparator = rowComparator;
+            this.done = done;
+        }
+    }
+}
@@ -7,7 +7,7 @@ import lombok.Data;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -42,9 +42,8 @@ public class Record {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Record record = (Record) o;
-        List<Object> columnValues0 = record.getColumnValues();
 
-        return StringUtils.equals(columnValues0.toString(), columnValues.toString());
+        return Arrays.deepEquals(columnValues.toArray(), record.getColumnValues().toArray());
     }
 
     @Override
@@ -64,10 +63,10 @@ public class Record {
         return primaryColValues;
     }
 
+    // primaryColValues 按主键索引顺序排列，与 DBQueryService.getPrimaryColStructures 一致
     public void setPrimaryColValues(List<Pair<Object, ColumnStructure>> primaryColValues) {
         this.primaryColValues = primaryColValues.stream().
                 filter(p -> StringUtils.equals(p.getRight().getColumnKey(),columnKey.PRI.name())).
-                sorted(Comparator.comparingLong(p -> p.getRight().getOrdinalPosition())).
                 collect(Collectors.toList());
     }
 
@@ -76,10 +75,10 @@ public class Record {
         // pkName, pkValue
         private List<Pair<Object,ColumnStructure>> primaryColValues;
 
+        // 保持传入的主键索引顺序，keyset 分页按该顺序绑定 (pk...) > (?...) 的参数
         public PrimaryKeys(List<Pair<Object, ColumnStructure>> primaryColValues) {
             this.primaryColValues = primaryColValues.stream().
                     filter(p -> StringUtils.equals(p.getRight().getColumnKey(),columnKey.PRI.name())).
-                    sorted(Comparator.comparingLong(p -> p.getRight().getOrdinalPosition())).
                     collect(Collectors.toList());
         }
 
@@ -89,17 +88,22 @@ public class Record {
             if (o == null || getClass() != o.getClass()) return false;
             PrimaryKeys that = (PrimaryKeys) o;
 
-            return StringUtils.equals(primaryColValues.toString(), that.primaryColValues.toString());
+            // 只比较主键值，不依赖 toString 与 ColumnStructure
+            return Arrays.deepEquals(getValues().toArray(), that.getValues().toArray());
         }
 
         @Override
         public int hashCode() {
-            return Objects.hashCode(primaryColValues);
+            return Arrays.deepHashCode(getValues().toArray());
         }
 
         public List<Pair<Object, ColumnStructure>> getPrimaryColValues() {
             return primaryColValues;
         }
 
+        public List<Object> getValues() {
+            return primaryColValues.stream().map(Pair::getLeft).collect(Collectors.toList());
+        }
+
     }
 }
@@ -0,0 +1,129 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.ImmutableList;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+
+import static com.example.mysqlserverutilbak.mysql.DBQueryService.*;
+import static com.example.mysqlserverutilbak.mysql.MetadataLoader.*;
+import static com.example.mysqlserverutilbak.mysql.ValidateConfig.*;
+
+/**
+ * [DIFF_FROM_RECORD_NUM] 分级统计 record count：
+ * 1. ESTIMATE: 比较 metadata 中的 TABLE_ROWS，相对误差不超过 estimateTolerance 视为一致，不执行 count(*)
+ * 2. EXACT: source / target 并发 count(*)，单条语句超过 countTimeoutSeconds 由 driver 取消；
+ *    单列整数主键且估算行数达到 splitThresholdRows 的 table 按主键 range 拆成多条 count(*) 并行执行
+ * 估算不一致时升级为 EXACT 确认；EXACT 失败或超时时，ESTIMATE 模式退回估算结果，
+ * 其余返回 unknown 的结果，不以 TABLE_ROWS 判定 count 差异，由调用方继续对比 record content。
+ */
+@Component
+@Slf4j
+public class RecordCounter {
+
+    @Autowired
+    private ValidateConfig config;
+
+    @Autowired
+    private DataSource sourceDataSource;
+
+    @Autowired
+    private DataSource targetDataSource;
+
+    @Autowired
+    private DBQueryService DBQueryService;
+
+    @Autowired
+    private TableSplitter tableSplitter;
+
+    // count(*) 语句提交到 executor，range 之间互不等待
+    public CompletableFuture<CountResult> count(String dbName, String tableName, SchemaMetadata sourceMetadata, SchemaMetadata targetMetadata, Executor executor) {
+        long sourceEstimate = sourceMetadata.getTableRows(dbName, tableName);
+        long targetEstimate = targetMetadata.getTableRows(dbName, tableName);
+        CountResult estimate = new CountResult(sourceEstimate, targetEstimate, false, withinTolerance(sourceEstimate, targetEstimate), false);
+        CountMode countMode = getCountMode(dbName, tableName);
+        if (estimate.isMatched() && countMode == CountMode.ESTIMATE) {
+            return CompletableFuture.completedFuture(estimate);
+        }
+
+        List<ColumnStructure> primaryColStructures = sourceMetadata.getPrimaryColStructures(dbName, tableName);
+        List<PkRange> ranges = TableSplitter.isLongPk(primaryColStructures) ?
+                tableSplitter.split(dbName, tableName, primaryColStructures, sourceEstimate) : ImmutableList.of(PkRange.ALL);
+        List<CompletableFuture<Pair<Long, Long>>> rangeCounts = ranges.stream().
+                map(range -> CompletableFuture.supplyAsync(() -> countRange(dbName, tableName, primaryColStructures, range), executor)).
+                collect(Collectors.toList());
+
+        return CompletableFuture.allOf(rangeCounts.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            long sourceCount = 0;
+            long targetCount = 0;
+            for (CompletableFuture<Pair<Long, Long>> rangeCount : rangeCounts) {
+                Pair<Long, Long> counts = rangeCount.join();
+                if (counts.getLeft() == null || counts.getRight() == null) {
+                    if (countMode == CountMode.ESTIMATE) {
+                        log.warn("[RecordCounter] exact count fail, fall back to estimate, dbName = {}, tableName = {}, estimate = {}", dbName, tableName, estimate);
+                        return estimate;
+                    }
+                    log.warn("[RecordCounter] exact count fail, count is unknown, dbName = {}, tableName = {}, estimate = {}", dbName, tableName, estimate);
+                    return new CountResult(sourceEstimate, targetEstimate, false, false, true);
+                }
+                sourceCount += counts.getLeft();
+                targetCount += counts.getRight();
+            }
+            return new CountResult(sourceCount, targetCount, true, sourceCount == targetCount, false);
+        });
+    }
+
+    // 失败时两侧均为 null
+    private Pair<Long, Long> countRange(String dbName, String tableName, List<ColumnStructure> primaryColStructures, PkRange range) {
+        try {
+            return queryInParallel(
+                    () -> DBQueryService.getRecordCount(sourceDataSource, dbName, tableName, primaryColStructures, range, config.getCountTimeoutSeconds()),
+                    () -> DBQueryService.getRecordCount(targetDataSource, dbName, tableName, primaryColStructures, range, config.getCountTimeoutSeconds()));
+        } catch (Exception e) {
+            log.error("[RecordCounter] count range fail, dbName = {}, tableName = {}, range = {}", dbName, tableName, range, e);
+            return Pair.of(null, null);
+        }
+    }
+
+    private CountMode getCountMode(String dbName, String tableName) {
+        if (contains(config.getExactCountTables(), dbName, tableName)) {
+            return CountMode.EXACT;
+        }
+        if (contains(config.getEstimateCountTables(), dbName, tableName)) {
+            return CountMode.ESTIMATE;
+        }
+        return config.getCountMode();
+    }
+
+    private boolean contains(Map<String, Set<String>> tables, String dbName, String tableName) {
+        Set<String> dbTables = tables == null ? null : tables.get(dbName);
+        return dbTables != null && (dbTables.contains("*") || dbTables.contains(tableName));
+    }
+
+    private boolean withinTolerance(long sourceCount, long targetCount) {
+        return Math.abs(sourceCount - targetCount) <= config.getEstimateTolerance() * Math.max(sourceCount, targetCount);
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class CountResult {
+        private long sourceCount;
+        private long targetCount;
+        // false 时为 TABLE_ROWS 估算值
+        private boolean exact;
+        private boolean matched;
+        // exact count 失败且不允许退回估算值，count 为 TABLE_ROWS 估算值，只用于估算对比耗时
+        private boolean unknown;
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static com.example.mysqlserverutilbak.mysql.DifferenceInfo.*;
+import static com.example.mysqlserverutilbak.mysql.ValidateConfig.*;
+
+/**
+ * 差异报告的流式写入：差异登记时立即写入一条，不再在结束时拼接全部差异、写完后读回文件打印。
+ * 1. TEXT: 每条差异一段文本；JSON_LINES: 每条差异一行 JSON
+ * 2. compress 时 gzip 压缩，文件名追加 .gz
+ * 3. writeSummary 在末尾追加各类差异的数量与结论
+ * 同一 table 重复登记 (增量校验的累计差异) 时写入新的一条，以最后一条为准。写入失败后不再写入。
+ */
+@Slf4j
+public class ReportWriter implements AutoCloseable {
+
+    private final Path path;
+    private final ReportFormat format;
+    private Writer writer;
+    private long index;
+
+    private ReportWriter(Path path, ReportFormat format, Writer writer) {
+        this.path = path;
+        this.format = format;
+        this.writer = writer;
+    }
+
+    // 打开失败时返回不写入的 writer，对比继续进行
+    public static ReportWriter open(String dir, String name, ReportFormat format, boolean compress) {
+        Path path = Paths.get(dir, name + "-report" + format.getSuffix() + (compress ? ".gz" : ""));
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            OutputStream os = Channels.newOutputStream(FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+            if (compress) {
+                // syncFlush，flush 后已写入的差异可以直接解压读取
+                os = new GZIPOutputStream(os, 64 * 1024, true);
+            }
+            return new ReportWriter(path, format, new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 64 * 1024));
+        } catch (IOException e) {
+            log.error("[ReportWriter] create report file fail, path = {}", path, e);
+            return new ReportWriter(path, format, null);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public synchronized void write(DifferenceInfo diffInfo) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            index++;
+            if (format == ReportFormat.JSON_LINES) {
+                JSONObject json = new JSONObject(true);
+                json.put("index", index);
+                json.put("diffType", diffInfo.getDiffType().name());
+                json.put("dbName", diffInfo.getDbName());
+                json.put("tableName", diffInfo.getTableName());
+                if (diffInfo instanceof RecordContentDiffInfo) {
+                    RecordContentDiffInfo contentDiff = (RecordContentDiffInfo) diffInfo;
+                    json.put("sourceOnlyCount", contentDiff.getSourceOnlyCount());
+                    json.put("samePkDiffCount", contentDiff.getSamePkDiffCount());
+                    json.put("targetOnlyCount", contentDiff.getTargetOnlyCount());
+                    if (contentDiff.getSink() != null) {
+                        json.put("spillFile", contentDiff.getSink().getPath().toString());
+                    }
+                } else if (diffInfo instanceof SampleDiffInfo) {
+                    SampleDiffInfo sampleDiff = (SampleDiffInfo) diffInfo;
+                    json.put("sampledRows", sampleDiff.getSampledRows());
+                    json.put("diffRows", sampleDiff.getDiffRows());
+                    json.put("estimatedRate", sampleDiff.getEstimatedRate());
+                    json.put("upperBound", sampleDiff.getUpperBound());
+                }
+                json.put("content", diffInfo.toString());
+                writer.write(json.toJSONString());
+                writer.write('\n');
+            } else {
+                writer.write(String.valueOf(index));
+                writer.write(". [");
+                writer.write(diffInfo.getDiffType().getTitleContent());
+                writer.write("] ");
+                writer.write(diffInfo.toString());
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    // 各类差异的数量，conclusion 为空时不写结论
+    public synchronized void writeSummary(String prefix, String conclusion, Map<DiffType, Integer> counts) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            if (format == ReportFormat.JSON_LINES) {
+                JSONObject json = new JSONObject(true);
+                json.put("type", "SUMMARY");
+                json.put("conclusion", conclusion);
+                json.put("counts", counts);
+                writer.write(json.toJSONString());
+                writer.write('\n');
+            } else {
+                if (conclusion != null) {
+                    writer.write(String.format(">>>>>>>>>>>>>>>> %s %s <<<<<<<<<<<<<<<<<< \n", prefix, conclusion));
+                }
+                for (Map.Entry<DiffType, Integer> entry : counts.entrySet()) {
+                    writer.write(entry.getKey().getTitle(prefix));
+                    writer.write(": ");
+                    writer.write(String.valueOf(entry.getValue()));
+                    writer.write('\n');
+                }
+            }
+            writer.flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.error("[ReportWriter] close report file fail, path = {}", path, e);
+        }
+        writer = null;
+    }
+
+    private void fail(IOException e) {
+        log.error("[ReportWriter] write report fail, path = {}", path, e);
+        close();
+    }
+}
@@ -0,0 +1,566 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang3.StringUtils;
+import com.example.mysqlserverutilbak.mysql.util.ByteArena;
+import com.example.mysqlserverutilbak.mysql.util.FetchStats;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.example.mysqlserverutilbak.mysql.Record.*;
+
+/**
+ * 一批 records 的列式存储，ResultSet 每批次只填充一次：
+ * 1. 整数 / decimal(precision <= 18) 存储为 long[]，浮点存储为 double 的 long bits
+ * 2. 字符串 / blob 存储为连续 byte[] + offsets，不构造 String
+ * 3. 其余类型（日期等）保留 driver 返回的对象
+ * 4. null 使用 bitmap 标记
+ * 对比使用 rowEquals / pkEquals / pkHash，不经过 toString；只有差异 record 才通过 toRecord 物化为 Record。
+ * rowEquals 可以传入 table 的 RowComparator，默认比较不一致时再按列的规则做数值 / 精度 / 大小写的规范化。
+ */
+public class RowBatch implements FetchStats {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    // decimal 的 precision 不超过 18 时 unscaled value 一定能放入 long
+    private static final int MAX_LONG_DECIMAL_PRECISION = 18;
+
+    enum Kind {
+        LONG,
+        DOUBLE,
+        DECIMAL,
+        BYTES,
+        OBJECT,
+    }
+
+    private final List<ColumnStructure> primaryColStructures;
+    // primaryColStructures 中每个主键列在结果集中的位置 (0-based)
+    private final int[] primaryColIndexes;
+    private final ColumnVector[] vectors;
+    private int size;
+    // 已读取数据的估算字节数
+    private long byteSize;
+
+    private RowBatch(ResultSetMetaData metaData, List<ColumnStructure> primaryColStructures, int capacity) throws SQLException {
+        this.primaryColStructures = primaryColStructures;
+        int columnCount = metaData.getColumnCount();
+        this.vectors = new ColumnVector[columnCount];
+        Map<String, Integer> columnIndexMap = Maps.newHashMap();
+        for (int index = 1; index <= columnCount; index++) {
+            vectors[index - 1] = new ColumnVector(metaData, index, Math.max(capacity, 1));
+            columnIndexMap.put(metaData.getColumnLabel(index), index - 1);
+        }
+        this.primaryColIndexes = primaryColStructures.stream().mapToInt(column -> columnIndexMap.get(column.getColumnName())).toArray();
+        for (int i = 0; i < primaryColIndexes.length; i++) {
+            vectors[primaryColIndexes[i]].caseInsensitive = StringUtils.endsWith(primaryColStructures.get(i).getCollationName(), "_ci");
+        }
+    }
+
+    // 读取 ResultSet 的全部记录
+    public static RowBatch fromResultSet(ResultSet rs, List<ColumnStructure> primaryColStructures) throws SQLException {
+        RowBatch batch = new RowBatch(rs.getMetaData(), primaryColStructures, DEFAULT_CAPACITY);
+        batch.fill(rs, Integer.MAX_VALUE);
+        return batch;
+    }
+
+    // 创建空 batch，用于配合 fill 分批读取流式 ResultSet
+    public static RowBatch forResultSet(ResultSet rs, List<ColumnStructure> primaryColStructures, int capacity) throws SQLException {
+        return new RowBatch(rs.getMetaData(), primaryColStructures, capacity);
+    }
+
+    // 清空后从 ResultSet 继续读取至多 maxRows 条记录，返回读取的条数；数组容量复用
+    public int fill(ResultSet rs, int maxRows) throws SQLException {
+        clear();
+        return append(rs, maxRows);
+    }
+
+    // 在已有记录之后追加至多 maxRows 条记录，ResultSet 的列必须与 batch 一致，返回追加的条数
+    public int append(ResultSet rs, int maxRows) throws SQLException {
+        int appended = 0;
+        while (appended < maxRows && rs.next()) {
+            for (ColumnVector vector : vectors) {
+                byteSize += vector.read(rs, size);
+            }
+            size++;
+            appended++;
+        }
+        return appended;
+    }
+
+    public void clear() {
+        for (ColumnVector vector : vectors) {
+            vector.clear();
+        }
+        size = 0;
+        byteSize = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getByteSize() {
+        return byteSize;
+    }
+
+    @Override
+    public int getFetchedRows() {
+        return size;
+    }
+
+    @Override
+    public long getFetchedBytes() {
+        return byteSize;
+    }
+
+    public List<ColumnStructure> getPrimaryColStructures() {
+        return primaryColStructures;
+    }
+
+    public int getPrimaryColCount() {
+        return primaryColIndexes.length;
+    }
+
+    // 第 row 条记录的第 pkIndex 个主键值，供拼接 SQL 参数使用
+    public Object getPrimaryValue(int row, int pkIndex) {
+        return vectors[primaryColIndexes[pkIndex]].getValue(row);
+    }
+
+    public PrimaryKeys primaryKeysAt(int row) {
+        List<Pair<Object, ColumnStructure>> primaryColValues = Lists.newArrayListWithCapacity(primaryColIndexes.length);
+        for (int i = 0; i < primaryColIndexes.length; i++) {
+            primaryColValues.add(Pair.of(getPrimaryValue(row, i), primaryColStructures.get(i)));
+        }
+        return new PrimaryKeys(primaryColValues);
+    }
+
+    // 物化为 Record，只用于差异 record 的存储与输出
+    public Record toRecord(int row) {
+        List<Object> columnValues = Lists.newArrayListWithCapacity(vectors.length);
+        for (ColumnVector vector : vectors) {
+            columnValues.add(vector.getValue(row));
+        }
+        List<Pair<Object, ColumnStructure>> primaryColValues = Lists.newArrayListWithCapacity(primaryColIndexes.length);
+        for (int i = 0; i < primaryColIndexes.length; i++) {
+            primaryColValues.add(Pair.of(columnValues.get(primaryColIndexes[i]), primaryColStructures.get(i)));
+        }
+        Record record = new Record();
+        record.setColumnValues(columnValues);
+        record.setPrimaryColValues(primaryColValues);
+        return record;
+    }
+
+    public boolean rowEquals(int row, RowBatch other, int otherRow) {
+        return rowEquals(row, other, otherRow, RowComparator.DEFAULT);
+    }
+
+    // 按 table 的列比较规则比较，规则为 EXACT 的列直接比较 long / 字节
+    public boolean rowEquals(int row, RowBatch other, int otherRow, RowComparator comparator) {
+        if (vectors.length != other.vectors.length) {
+            return false;
+        }
+        for (int column = 0; column < vectors.length; column++) {
+            RowComparator.RuleType rule = comparator.rule(column);
+            boolean equals = rule == RowComparator.RuleType.EXACT ?
+                    vectors[column].valueEquals(row, other.vectors[column], otherRow) :
+                    vectors[column].valueEquals(row, other.vectors[column], otherRow, rule, comparator.precision(column));
+            if (!equals) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 与 comparePk 语义一致：_ci collation 的主键忽略大小写
+    public boolean pkEquals(int row, RowBatch other, int otherRow) {
+        for (int i = 0; i < primaryColIndexes.length; i++) {
+            if (!vectors[primaryColIndexes[i]].pkValueEquals(row, other.vectors[other.primaryColIndexes[i]], otherRow)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 主键值的 64 位 hash，pkEquals 相等的主键在任意 batch 中 hash 相同
+    public long pkHash(int row) {
+        long hash = 0x9E3779B97F4A7C15L;
+        for (int primaryColIndex : primaryColIndexes) {
+            hash = (hash ^ vectors[primaryColIndex].pkValueHash(row)) * 0xBF58476D1CE4E5B9L;
+        }
+        return mix64(hash);
+    }
+
+    // 单列 long 主键，可直接使用 LongIntHashMap 建立索引
+    public boolean isSingleLongPk() {
+        return primaryColIndexes.length == 1 && vectors[primaryColIndexes[0]].kind == Kind.LONG;
+    }
+
+    public long getPrimaryLong(int row) {
+        return vectors[primaryColIndexes[0]].longs[row];
+    }
+
+    // 主键值的规范化编码追加到 out：pkEquals 相等的主键在任意 batch 中编码相同
+    public void encodePk(int row, ByteArena out) {
+        for (int primaryColIndex : primaryColIndexes) {
+            vectors[primaryColIndex].encode(row, out);
+        }
+    }
+
+    // 与 MySQL ORDER BY pk... 一致的主键比较：数值按数值，_ci collation 忽略大小写，其余按无符号字节
+    public int comparePk(int row, RowBatch other, int otherRow) {
+        for (int i = 0; i < primaryColIndexes.length; i++) {
+            int res = vectors[primaryColIndexes[i]].compareValue(row, other.vectors[other.primaryColIndexes[i]], otherRow);
+            if (res != 0) {
+                return res;
+            }
+        }
+        return 0;
+    }
+
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static final class ColumnVector {
+        // 在结果集中的位置 (1-based)
+        private final int column;
+        private final Kind kind;
+        private final int scale;
+        private final boolean binary;
+        private final boolean isFloat;
+        private boolean caseInsensitive;
+
+        private long[] longs;
+        private byte[] bytes;
+        // offsets[row] ~ offsets[row + 1] 为第 row 条记录在 bytes 中的位置
+        private int[] offsets;
+        private Object[] objects;
+        private long[] nulls;
+
+        ColumnVector(ResultSetMetaData metaData, int index, int capacity) throws SQLException {
+            int sqlType = metaData.getColumnType(index);
+            this.column = index;
+            this.kind = kindOf(sqlType, metaData.getPrecision(index), metaData.isSigned(index));
+            this.scale = metaData.getScale(index);
+            this.binary = sqlType == Types.BINARY || sqlType == Types.VARBINARY || sqlType == Types.LONGVARBINARY || sqlType == Types.BLOB;
+            this.isFloat = sqlType == Types.REAL || sqlType == Types.FLOAT;
+            this.nulls = new long[(capacity >>> 6) + 1];
+            switch (kind) {
+                case LONG:
+                case DOUBLE:
+                case DECIMAL:
+                    longs = new long[capacity];
+                    break;
+                case BYTES:
+                    offsets = new int[capacity + 1];
+                    bytes = new byte[capacity * 16];
+                    break;
+                default:
+                    objects = new Object[capacity];
+            }
+        }
+
+        private static Kind kindOf(int sqlType, int precision, boolean signed) {
+            switch (sqlType) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                    return Kind.LONG;
+                case Types.BIGINT:
+                    // bigint unsigned 可能超出 long 范围
+                    return signed ? Kind.LONG : Kind.OBJECT;
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    return Kind.DOUBLE;
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    return precision <= MAX_LONG_DECIMAL_PRECISION ? Kind.DECIMAL : Kind.OBJECT;
+                case Types.CHAR:
+                case Types.VARCHAR:
+                case Types.LONGVARCHAR:
+                case Types.BINARY:
+                case Types.VARBINARY:
+                case Types.LONGVARBINARY:
+                case Types.BLOB:
+                case Types.CLOB:
+                    return Kind.BYTES;
+                default:
+                    return Kind.OBJECT;
+            }
+        }
+
+        void clear() {
+            Arrays.fill(nulls, 0L);
+        }
+
+        // 读取当前行的本列数据，返回估算的字节数
+        int read(ResultSet rs, int row) throws SQLException {
+            ensureCapacity(row + 1);
+            switch (kind) {
+                case LONG:
+                    longs[row] = rs.getLong(column);
+                    return markNull(rs, row) ? 0 : Long.BYTES;
+                case DOUBLE:
+                    longs[row] = Double.doubleToLongBits(isFloat ? rs.getFloat(column) : rs.getDouble(column));
+                    return markNull(rs, row) ? 0 : Long.BYTES;
+                case DECIMAL:
+                    BigDecimal decimal = rs.getBigDecimal(column);
+                    longs[row] = decimal == null ? 0 : decimal.setScale(scale, BigDecimal.ROUND_UNNECESSARY).unscaledValue().longValue();
+                    return markNull(rs, row) ? 0 : Long.BYTES;
+                case BYTES:
+                    byte[] value = rs.getBytes(column);
+                    int start = offsets[row];
+                    int length = value == null ? 0 : value.length;
+                    if (start + length > bytes.length) {
+                        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, start + length));
+                    }
+                    if (value != null) {
+                        System.arraycopy(value, 0, bytes, start, length);
+                    }
+                    offsets[row + 1] = start + length;
+                    return markNull(rs, row) ? 0 : length;
+                default:
+                    objects[row] = rs.getObject(column);
+                    return markNull(rs, row) ? 0 : 16;
+            }
+        }
+
+        private boolean markNull(ResultSet rs, int row) throws SQLException {
+            if (rs.wasNull()) {
+                nulls[row >>> 6] |= 1L << row;
+                return true;
+            }
+            return false;
+        }
+
+        boolean isNull(int row) {
+            return (nulls[row >>> 6] & (1L << row)) != 0;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (nulls.length <= (capacity >>> 6)) {
+                nulls = Arrays.copyOf(nulls, nulls.length * 2 + 1);
+            }
+            if (longs != null && longs.length < capacity) {
+                longs = Arrays.copyOf(longs, longs.length * 2);
+            }
+            if (offsets != null && offsets.length < capacity + 1) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            if (objects != null && objects.length < capacity) {
+                objects = Arrays.copyOf(objects, objects.length * 2);
+            }
+        }
+
+        Object getValue(int row) {
+            if (isNull(row)) {
+                return null;
+            }
+            switch (kind) {
+                case LONG:
+                    return longs[row];
+                case DOUBLE:
+                    double value = Double.longBitsToDouble(longs[row]);
+                    return isFloat ? (Object) (float) value : (Object) value;
+                case DECIMAL:
+                    return BigDecimal.valueOf(longs[row], scale);
+                case BYTES:
+                    byte[] slice = Arrays.copyOfRange(bytes, offsets[row], offsets[row + 1]);
+                    return binary ? slice : new String(slice, StandardCharsets.UTF_8);
+                default:
+                    return objects[row];
+            }
+        }
+
+        boolean valueEquals(int row, ColumnVector other, int otherRow) {
+            boolean isNull = isNull(row);
+            if (isNull || other.isNull(otherRow)) {
+                return isNull && other.isNull(otherRow);
+            }
+            if (kind != other.kind || (kind == Kind.DECIMAL && scale != other.scale)) {
+                return Objects.deepEquals(getValue(row), other.getValue(otherRow));
+            }
+            switch (kind) {
+                case LONG:
+                case DOUBLE:
+                case DECIMAL:
+                    return longs[row] == other.longs[otherRow];
+                case BYTES:
+                    int length = offsets[row + 1] - offsets[row];
+                    if (length != other.offsets[otherRow + 1] - other.offsets[otherRow]) {
+                        return false;
+                    }
+                    for (int i = 0; i < length; i++) {
+                        if (bytes[offsets[row] + i] != other.bytes[other.offsets[otherRow] + i]) {
+                            return false;
+                        }
+                    }
+                    return true;
+                default:
+                    return Objects.deepEquals(objects[row], other.objects[otherRow]);
+            }
+        }
+
+        // 类型相同时先按默认比较，不一致时再按规则转换后比较
+        boolean valueEquals(int row, ColumnVector other, int otherRow, RowComparator.RuleType rule, int precision) {
+            if (valueEquals(row, other, otherRow)) {
+                return true;
+            }
+            if (isNull(row) || other.isNull(otherRow)) {
+                return false;
+            }
+            switch (rule) {
+                case NUMERIC:
+                    return RowComparator.numericEquals(getValue(row), other.getValue(otherRow));
+                case FLOAT:
+                    return kind == Kind.DOUBLE && other.kind == Kind.DOUBLE &&
+                            (float) Double.longBitsToDouble(longs[row]) == (float) Double.longBitsToDouble(other.longs[otherRow]);
+                case TEMPORAL:
+                    return RowComparator.temporalEquals(getValue(row), other.getValue(otherRow), precision);
+                case CASE_INSENSITIVE:
+                    return kind == Kind.BYTES && !binary && other.kind == Kind.BYTES && !other.binary &&
+                            ((String) getValue(row)).equalsIgnoreCase((String) other.getValue(otherRow));
+                default:
+                    return false;
+            }
+        }
+
+        // _ci 的字符串主键按 foldCase 后比较，与 compareValue 的 String.CASE_INSENSITIVE_ORDER 相等的判定一致
+        private boolean foldsCase(ColumnVector other) {
+            return caseInsensitive && kind == Kind.BYTES && !binary && other.kind == Kind.BYTES && !other.binary;
+        }
+
+        boolean pkValueEquals(int row, ColumnVector other, int otherRow) {
+            if (!foldsCase(other) || isNull(row) || other.isNull(otherRow)) {
+                return valueEquals(row, other, otherRow);
+            }
+            return ((String) getValue(row)).equalsIgnoreCase((String) other.getValue(otherRow));
+        }
+
+        long pkValueHash(int row) {
+            if (!foldsCase(this) || isNull(row)) {
+                return valueHash(row);
+            }
+            String value = (String) getValue(row);
+            // FNV-1a
+            long hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ foldCase(value.charAt(i))) * 0x100000001B3L;
+            }
+            return hash;
+        }
+
+        // 与 String.equalsIgnoreCase 一致：先转大写再转小写
+        private static char foldCase(char c) {
+            return Character.toLowerCase(Character.toUpperCase(c));
+        }
+
+        long valueHash(int row) {
+            if (isNull(row)) {
+                return 0;
+            }
+            switch (kind) {
+                case LONG:
+                case DOUBLE:
+                case DECIMAL:
+                    return mix64(longs[row]);
+                case BYTES:
+                    // FNV-1a
+                    long hash = 0xCBF29CE484222325L;
+                    for (int i = offsets[row]; i < offsets[row + 1]; i++) {
+                        hash = (hash ^ (bytes[i] & 0xFF)) * 0x100000001B3L;
+                    }
+                    return hash;
+                default:
+                    return objects[row].hashCode();
+            }
+        }
+
+        // tag + 定长 long / 变长 bytes；null 只有 tag
+        void encode(int row, ByteArena out) {
+            if (isNull(row)) {
+                out.writeByte(0);
+                return;
+            }
+            out.writeByte(kind.ordinal() + 1);
+            switch (kind) {
+                case DECIMAL:
+                    out.writeByte(scale);
+                    // fall through
+                case LONG:
+                case DOUBLE:
+                    out.writeLong(longs[row]);
+                    return;
+                case BYTES:
+                    if (foldsCase(this)) {
+                        // _ci 主键按大小写折叠后的值编码，大小写不同的主键编码相同
+                        char[] chars = ((String) getValue(row)).toCharArray();
+                        for (int i = 0; i < chars.length; i++) {
+                            chars[i] = foldCase(chars[i]);
+                        }
+                        byte[] folded = new String(chars).getBytes(StandardCharsets.UTF_8);
+                        out.writeVarInt(folded.length);
+                        out.writeBytes(folded, 0, folded.length);
+                        return;
+                    }
+                    out.writeVarInt(offsets[row + 1] - offsets[row]);
+                    out.writeBytes(bytes, offsets[row], offsets[row + 1] - offsets[row]);
+                    return;
+                default:
+                    // 日期等少见的主键类型，按字符串编码
+                    byte[] value = String.valueOf(objects[row]).getBytes(StandardCharsets.UTF_8);
+                    out.writeVarInt(value.length);
+                    out.writeBytes(value, 0, value.length);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        int compareValue(int row, ColumnVector other, int otherRow) {
+            boolean isNull = isNull(row);
+            boolean otherIsNull = other.isNull(otherRow);
+            if (isNull || otherIsNull) {
+                return Boolean.compare(!isNull, !otherIsNull);
+            }
+            switch (kind) {
+                case LONG:
+                case DECIMAL:
+                    return Long.compare(longs[row], other.longs[otherRow]);
+                case DOUBLE:
+                    return Double.compare(Double.longBitsToDouble(longs[row]), Double.longBitsToDouble(other.longs[otherRow]));
+                case BYTES:
+                    if (caseInsensitive) {
+                        return String.CASE_INSENSITIVE_ORDER.compare((String) getValue(row), (String) other.getValue(otherRow));
+                    }
+                    int length = offsets[row + 1] - offsets[row];
+                    int otherLength = other.offsets[otherRow + 1] - other.offsets[otherRow];
+                    for (int i = 0; i < Math.min(length, otherLength); i++) {
+                        int res = Integer.compare(bytes[offsets[row] + i] & 0xFF, other.bytes[other.offsets[otherRow] + i] & 0xFF);
+                        if (res != 0) {
+                            return res;
+                        }
+                    }
+                    return Integer.compare(length, otherLength);
+                default:
+                    return ((Comparable<Object>) objects[row]).compareTo(other.objects[otherRow]);
+            }
+        }
+    }
+}
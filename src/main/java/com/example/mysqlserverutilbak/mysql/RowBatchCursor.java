@@ -0,0 +1,40 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.example.mysqlserverutilbak.mysql.util.AdmissionController;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 分批读取流式 ResultSet，两个 RowBatch 交替复用：next 返回新的一批时，上一批仍然有效，
+ * 内存占用与 table 大小无关。每读取一批按 admissionController 的 rows/s、bytes/s 限速。
+ */
+public class RowBatchCursor {
+
+    private final ResultSet rs;
+    private final RowBatch[] batches;
+    private final int batchSize;
+    // 为 null 时不限速
+    private final AdmissionController admissionController;
+    private int current;
+
+    public RowBatchCursor(ResultSet rs, List<ColumnStructure> primaryColStructures, int batchSize, AdmissionController admissionController) throws SQLException {
+        this.rs = rs;
+        this.batchSize = batchSize;
+        this.admissionController = admissionController;
+        this.batches = new RowBatch[]{
+                RowBatch.forResultSet(rs, primaryColStructures, batchSize),
+                RowBatch.forResultSet(rs, primaryColStructures, batchSize)};
+    }
+
+    // 读取下一批 records，读取完毕时返回空 batch
+    public RowBatch next() throws SQLException {
+        current ^= 1;
+        batches[current].fill(rs, batchSize);
+        if (admissionController != null) {
+            admissionController.throttle(batches[current].getFetchedRows(), batches[current].getFetchedBytes());
+        }
+        return batches[current];
+    }
+}
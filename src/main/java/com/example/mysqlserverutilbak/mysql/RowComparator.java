@@ -0,0 +1,187 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 一张 table 的逐列比较规则，按 source / target 的 ColumnStructure 构建一次，table 的所有批次复用：
+ * 1. 整数 / decimal：按数值比较，1.0 与 1.00、bigint 与 bigint unsigned 的相同取值不视为差异
+ * 2. float / double：任一侧为 float 时按 float 精度比较
+ * 3. datetime / timestamp / time：两侧 DATETIME_PRECISION 不同时按较小的精度四舍五入后比较，与 MySQL 写入时的舍入一致
+ * 4. _ci collation 的字符串忽略大小写
+ * 5. blob / binary、ColumnProjection 的 MD5 列及其余类型沿用 RowBatch 的默认比较 (字节 / equals)
+ * 类型与 collation 一致的列直接比较 RowBatch 中的 long / 字节，不做转换。
+ */
+public class RowComparator {
+
+    // 没有 ColumnStructure 时全部列使用默认比较
+    public static final RowComparator DEFAULT = new RowComparator(new RuleType[0], new int[0]);
+
+    // DATA_TYPE -> 比较规则
+    private static final Map<String, RuleType> DATA_TYPE_RULES = ImmutableMap.<String, RuleType>builder().
+            put("tinyint", RuleType.NUMERIC).
+            put("smallint", RuleType.NUMERIC).
+            put("mediumint", RuleType.NUMERIC).
+            put("int", RuleType.NUMERIC).
+            put("bigint", RuleType.NUMERIC).
+            put("decimal", RuleType.NUMERIC).
+            put("float", RuleType.FLOAT).
+            put("double", RuleType.FLOAT).
+            put("datetime", RuleType.TEMPORAL).
+            put("timestamp", RuleType.TEMPORAL).
+            put("time", RuleType.TEMPORAL).
+            put("char", RuleType.CASE_INSENSITIVE).
+            put("varchar", RuleType.CASE_INSENSITIVE).
+            put("tinytext", RuleType.CASE_INSENSITIVE).
+            put("text", RuleType.CASE_INSENSITIVE).
+            put("mediumtext", RuleType.CASE_INSENSITIVE).
+            put("longtext", RuleType.CASE_INSENSITIVE).
+            build();
+
+    private static final int MAX_TEMPORAL_PRECISION = 6;
+    private static final int NANOS_PER_SECOND = 1000000000;
+
+    // 按结果集中列的位置 (0-based，即 ORDINAL_POSITION 顺序)
+    private final RuleType[] rules;
+    // TEMPORAL 比较的精度
+    private final int[] precisions;
+
+    private RowComparator(RuleType[] rules, int[] precisions) {
+        this.rules = rules;
+        this.precisions = precisions;
+    }
+
+    // columns 与 records 查询的列顺序一致 (ColumnProjection.getColumns)；target 缺少的列按 source 构建
+    public static RowComparator forTable(List<ColumnStructure> sourceColumns, Collection<ColumnStructure> targetColumns) {
+        Map<String, ColumnStructure> targetByName = Maps.newHashMap();
+        for (ColumnStructure column : targetColumns == null ? Collections.<ColumnStructure>emptyList() : targetColumns) {
+            targetByName.put(column.getColumnName(), column);
+        }
+        RuleType[] rules = new RuleType[sourceColumns.size()];
+        int[] precisions = new int[sourceColumns.size()];
+        for (int i = 0; i < sourceColumns.size(); i++) {
+            ColumnStructure source = sourceColumns.get(i);
+            ColumnStructure target = targetByName.getOrDefault(source.getColumnName(), source);
+            rules[i] = ruleOf(source, target);
+            precisions[i] = Math.min(temporalPrecision(source), temporalPrecision(target));
+        }
+        return new RowComparator(rules, precisions);
+    }
+
+    private static RuleType ruleOf(ColumnStructure source, ColumnStructure target) {
+        RuleType rule = DATA_TYPE_RULES.getOrDefault(source.getDataType(), RuleType.EXACT);
+        switch (rule) {
+            case FLOAT:
+                return "float".equals(source.getDataType()) || "float".equals(target.getDataType()) ? RuleType.FLOAT : RuleType.EXACT;
+            case TEMPORAL:
+                return temporalPrecision(source) != temporalPrecision(target) ? RuleType.TEMPORAL : RuleType.EXACT;
+            case CASE_INSENSITIVE:
+                // 只有一侧不区分大小写时，大小写不同的值在另一侧是不同的值
+                return StringUtils.endsWith(source.getCollationName(), "_ci") && StringUtils.endsWith(target.getCollationName(), "_ci") ?
+                        RuleType.CASE_INSENSITIVE : RuleType.EXACT;
+            default:
+                return rule;
+        }
+    }
+
+    private static int temporalPrecision(ColumnStructure column) {
+        return NumberUtils.toInt(column.getDataTimePrecision(), MAX_TEMPORAL_PRECISION);
+    }
+
+    RuleType rule(int column) {
+        return column < rules.length ? rules[column] : RuleType.EXACT;
+    }
+
+    int precision(int column) {
+        return precisions[column];
+    }
+
+    // 整数、decimal、BigInteger 按数值比较，忽略 scale
+    static boolean numericEquals(Object value, Object other) {
+        BigDecimal decimal = toBigDecimal(value);
+        BigDecimal otherDecimal = toBigDecimal(other);
+        if (decimal == null || otherDecimal == null) {
+            return Objects.deepEquals(value, other);
+        }
+        return decimal.compareTo(otherDecimal) == 0;
+    }
+
+    private static BigDecimal toBigDecimal(Object value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        if (value instanceof BigInteger) {
+            return new BigDecimal((BigInteger) value);
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        }
+        return null;
+    }
+
+    // 按 precision 位小数秒四舍五入后比较，无法识别的类型按 equals
+    static boolean temporalEquals(Object value, Object other, int precision) {
+        long[] time = toSecondsAndNanos(value);
+        long[] otherTime = toSecondsAndNanos(other);
+        if (time == null || otherTime == null) {
+            return Objects.equals(value, other);
+        }
+        round(time, precision);
+        round(otherTime, precision);
+        return time[0] == otherTime[0] && time[1] == otherTime[1];
+    }
+
+    private static long[] toSecondsAndNanos(Object value) {
+        if (value instanceof java.sql.Timestamp) {
+            java.sql.Timestamp timestamp = (java.sql.Timestamp) value;
+            return new long[]{Math.floorDiv(timestamp.getTime(), 1000), timestamp.getNanos()};
+        }
+        if (value instanceof java.util.Date) {
+            long millis = ((java.util.Date) value).getTime();
+            return new long[]{Math.floorDiv(millis, 1000), Math.floorMod(millis, 1000) * 1000000L};
+        }
+        if (value instanceof LocalDateTime) {
+            LocalDateTime dateTime = (LocalDateTime) value;
+            return new long[]{dateTime.toEpochSecond(ZoneOffset.UTC), dateTime.getNano()};
+        }
+        if (value instanceof LocalTime) {
+            LocalTime time = (LocalTime) value;
+            return new long[]{time.toSecondOfDay(), time.getNano()};
+        }
+        return null;
+    }
+
+    private static void round(long[] time, int precision) {
+        long unit = 1;
+        for (int i = precision; i < 9; i++) {
+            unit *= 10;
+        }
+        time[1] = (time[1] + unit / 2) / unit * unit;
+        if (time[1] >= NANOS_PER_SECOND) {
+            time[0]++;
+            time[1] -= NANOS_PER_SECOND;
+        }
+    }
+
+    enum RuleType {
+        // RowBatch 的默认比较
+        EXACT,
+        NUMERIC,
+        FLOAT,
+        TEMPORAL,
+        CASE_INSENSITIVE,
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.example.mysqlserverutilbak.mysql.DBQueryService.*;
+import static com.example.mysqlserverutilbak.mysql.DifferenceInfo.*;
+import static com.example.mysqlserverutilbak.mysql.PageReader.*;
+import static com.example.mysqlserverutilbak.mysql.Record.*;
+
+/**
+ * [ROW] 模式的 record content 对比：db.table级别的record校验，每批次的条数由 BatchSizer 按 table 调整。
+ * keyset 分页：以上一批次最后一条记录的主键作为起点，按主键顺序扫描 source，再按主键查询 target。
+ * keyset 分页没有深分页的开销，默认对比到 range 的右边界；配置 rowCompareLimit 时 range 内最多对比该条数，超出时返回 false 由调用方登记 OUT_OF_LIMIT。
+ * 每批次对比完成后以最后一条记录的主键回调 progress。
+ * 由 PageReader 读取，对比当前批次时 source / target 已在读取之后的批次。
+ */
+@Component
+@Slf4j
+public class RowRecordComparator {
+
+    @Autowired
+    private ValidateConfig config;
+
+    @Autowired
+    private DataSource sourceDataSource;
+
+    @Autowired
+    private DataSource targetDataSource;
+
+    @Autowired
+    private DBQueryService DBQueryService;
+
+    public boolean compare(String dbName, String tableName, List<ColumnStructure> primaryColStructures, PkRange range, BatchSizer batchSizer,
+                           RowComparator rowComparator, RecordContentDiffInfo diffInfo, Consumer<PrimaryKeys> progress) {
+        long maxRows = config.getRowCompareLimit() > 0 ? config.getRowCompareLimit() : Long.MAX_VALUE;
+        boolean hasMore = true;
+        long comparedRows = 0;
+        try (PageReader reader = DBQueryService.openPageReader(sourceDataSource, targetDataSource, dbName, tableName, primaryColStructures,
+                range, batchSizer, config.getPrefetchPages(), maxRows, config.getConsistency().isSnapshot())) {
+            while (hasMore && comparedRows < maxRows && !diffInfo.isFull()) {
+                Page page = reader.next();
+                if (page == null) {
+                    break;
+                }
+                diffInfo.mergeRecordDiff(page.getSourceRecords(), page.getTargetRecords(), rowComparator);
+                comparedRows += page.getSourceRecords().size();
+
+                hasMore = page.isFull();
+                progress.accept(page.getLastPk());
+            }
+        }
+
+        // 7. OUT_OF_LIMIT
+        return !(hasMore && comparedRows >= maxRows);
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.example.mysqlserverutilbak.mysql.util.SqlSession;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.example.mysqlserverutilbak.mysql.DifferenceInfo.*;
+import static com.example.mysqlserverutilbak.mysql.Record.*;
+import static com.example.mysqlserverutilbak.mysql.ValidateConfig.*;
+
+/**
+ * [SAMPLE] 模式的 record content 对比：每张 table 只对比主键 hash 落在同一个桶内的记录，不扫描全部记录即可估计差异比例。
+ * 1. 样本量 n = ln(1 - confidence) / ln(1 - divergenceRate)，差异记录比例不低于 divergenceRate 时至少以 confidence 的概率抽到差异
+ * 2. 桶数 = source 记录数 / n，桶每次运行随机选择，样本均匀分布在整张 table 上
+ * 3. source 按 keyset 分页读取桶内记录，target 读取同一主键区间内同一个桶的记录，只在 target 存在的记录同样可以发现
+ * 分桶在服务端完成，只传输样本记录；全部 range 完成后按 SamplePlan 估计 table 的差异比例。
+ * consistency.snapshot 时两侧会话在第一次查询前各自开启一致性快照。
+ */
+@Component
+@Slf4j
+public class SampleRecordComparator {
+
+    @Autowired
+    private ValidateConfig config;
+
+    @Autowired
+    private DataSource sourceDataSource;
+
+    @Autowired
+    private DataSource targetDataSource;
+
+    @Autowired
+    private DBQueryService DBQueryService;
+
+    public void compare(String dbName, String tableName, List<ColumnStructure> primaryColStructures, PkRange range, BatchSizer batchSizer,
+                        RowComparator rowComparator, SamplePlan plan, RecordContentDiffInfo diffInfo) {
+        long sampledRows = 0;
+        PrimaryKeys lastPk = range.getLower();
+        try (SqlSession source = SqlSession.open(sourceDataSource); SqlSession target = SqlSession.open(targetDataSource)) {
+            if (config.getConsistency().isSnapshot()) {
+                source.startSnapshot();
+                target.startSnapshot();
+            }
+            while (true) {
+                int pageSize = batchSizer.getBatchSize();
+                long start = System.currentTimeMillis();
+                RowBatch sourceRecords = DBQueryService.querySampleRecords(source, dbName, tableName, primaryColStructures,
+                        new PkRange(lastPk, range.getUpper()), plan.buckets, plan.bucket, pageSize);
+                batchSizer.record(sourceRecords.size(), sourceRecords.getByteSize(), System.currentTimeMillis() - start);
+                // source 页不足时 target 读取到 range 的右边界
+                boolean full = sourceRecords.size() == pageSize;
+                PrimaryKeys upper = full ? sourceRecords.primaryKeysAt(sourceRecords.size() - 1) : range.getUpper();
+                RowBatch targetRecords = DBQueryService.querySampleRecords(target, dbName, tableName, primaryColStructures,
+                        new PkRange(lastPk, upper), plan.buckets, plan.bucket, 0);
+                diffInfo.mergeRecordDiff(sourceRecords, targetRecords, rowComparator);
+                sampledRows += sourceRecords.size();
+                if (!full) {
+                    break;
+                }
+                lastPk = upper;
+            }
+        }
+        plan.sampledRows.add(sampledRows);
+        log.info("[SAMPLE] compare finish, dbName = {}, tableName = {}, range = {}, bucket = {}/{}, sampledRows = {}",
+                dbName, tableName, range, plan.bucket, plan.buckets, sampledRows);
+    }
+
+    // 一张 table 的抽样参数，range 之间共用
+    public static class SamplePlan {
+        private final double confidence;
+        // source 记录总数
+        private final long totalRows;
+        private final int buckets;
+        private final int bucket;
+        // 已对比的 source 样本记录数
+        private final LongAdder sampledRows = new LongAdder();
+
+        SamplePlan(double confidence, long totalRows, int buckets, int bucket) {
+            this.confidence = confidence;
+            this.totalRows = totalRows;
+            this.buckets = buckets;
+            this.bucket = bucket;
+        }
+
+        public static SamplePlan of(SampleConfig config, long sourceTotalCount) {
+            long sampleSize = sampleSize(config.getConfidence(), config.getDivergenceRate());
+            int buckets = (int) Math.max(1, Math.min(Integer.MAX_VALUE, sourceTotalCount / sampleSize));
+            return new SamplePlan(config.getConfidence(), sourceTotalCount, buckets, ThreadLocalRandom.current().nextInt(buckets));
+        }
+
+        // 配置无效时返回 Long.MAX_VALUE，即对比全部记录
+        static long sampleSize(double confidence, double divergenceRate) {
+            if (confidence <= 0 || confidence >= 1 || divergenceRate <= 0 || divergenceRate >= 1) {
+                return Long.MAX_VALUE;
+            }
+            return (long) Math.ceil(Math.log(1 - confidence) / Math.log(1 - divergenceRate));
+        }
+
+        // 样本包含 source 的桶内记录与只在 target 存在的桶内记录
+        public SampleDiffInfo toDiffInfo(RecordContentDiffInfo diffInfo) {
+            long diffRows = diffInfo.getSourceOnlyCount() + diffInfo.getTargetOnlyCount() + diffInfo.getSamePkDiffCount();
+            return new SampleDiffInfo(diffInfo.getDbName(), diffInfo.getTableName(), totalRows,
+                    sampledRows.sum() + diffInfo.getTargetOnlyCount(), diffRows, confidence);
+        }
+    }
+}
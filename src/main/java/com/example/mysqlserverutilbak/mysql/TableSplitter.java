@@ -0,0 +1,108 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Set;
+
+import static com.example.mysqlserverutilbak.mysql.Record.*;
+
+/**
+ * 把大 table 按主键切分为多个 PkRange，各 range 可以由不同线程独立对比：
+ * 1. 单列整数主键 (bigint unsigned 除外)：MIN / MAX 等距切分，只需一次查询
+ * 2. 其余主键：按 source 主键顺序每 rowsPerRange 条取一个边界 (LIMIT n,1 的索引扫描)
+ * 第一个 range 左侧、最后一个 range 右侧无边界，覆盖 target 中超出 source 主键范围的记录。
+ */
+@Component
+@Slf4j
+public class TableSplitter {
+
+    private static final Set<String> INTEGER_TYPE = ImmutableSet.of("tinyint", "smallint", "mediumint", "int", "bigint");
+
+    @Autowired
+    private ValidateConfig config;
+
+    @Autowired
+    private DataSource sourceDataSource;
+
+    @Autowired
+    private DBQueryService DBQueryService;
+
+    // rowCount 为 source table 的记录数
+    public List<PkRange> split(String dbName, String tableName, List<ColumnStructure> primaryColStructures, long rowCount) {
+        if (rowCount < config.getSplitThresholdRows()) {
+            return ImmutableList.of(PkRange.ALL);
+        }
+        int rangeNum = (int) Math.min((rowCount + config.getRowsPerRange() - 1) / config.getRowsPerRange(), config.getMaxRangesPerTable());
+        if (rangeNum <= 1) {
+            return ImmutableList.of(PkRange.ALL);
+        }
+
+        List<PrimaryKeys> boundaries = isLongPk(primaryColStructures) ?
+                splitByMinMax(dbName, tableName, primaryColStructures.get(0), rangeNum) :
+                splitByRowCount(dbName, tableName, primaryColStructures, rowCount / rangeNum, rangeNum);
+
+        List<PkRange> ranges = Lists.newArrayListWithCapacity(boundaries.size() + 1);
+        PrimaryKeys lower = null;
+        for (PrimaryKeys upper : boundaries) {
+            ranges.add(new PkRange(lower, upper));
+            lower = upper;
+        }
+        ranges.add(new PkRange(lower, null));
+        log.info("[TableSplitter] dbName = {}, tableName = {}, rowCount = {}, ranges = {}", dbName, tableName, rowCount, ranges);
+        return ranges;
+    }
+
+    static boolean isLongPk(List<ColumnStructure> primaryColStructures) {
+        if (primaryColStructures.size() != 1) {
+            return false;
+        }
+        ColumnStructure column = primaryColStructures.get(0);
+        // bigint unsigned 可能超出 long 范围，其余整数类型均可放入 long
+        return INTEGER_TYPE.contains(column.getDataType()) &&
+                !(StringUtils.equals(column.getDataType(), "bigint") && StringUtils.containsIgnoreCase(column.getColumnType(), "unsigned"));
+    }
+
+    // 主键分布不均匀时各 range 的记录数会有偏差，但不影响正确性
+    private List<PrimaryKeys> splitByMinMax(String dbName, String tableName, ColumnStructure primaryColStructure, int rangeNum) {
+        Pair<Long, Long> minMax = DBQueryService.queryPkMinMax(sourceDataSource, dbName, tableName, primaryColStructure);
+        List<PrimaryKeys> boundaries = Lists.newArrayList();
+        if (minMax == null) {
+            return boundaries;
+        }
+        long min = minMax.getLeft();
+        long max = minMax.getRight();
+        // max - min 溢出时 step 为负，不切分
+        long step = (max - min) / rangeNum;
+        if (step <= 0) {
+            return boundaries;
+        }
+        for (int i = 1; i < rangeNum; i++) {
+            boundaries.add(new PrimaryKeys(Lists.newArrayList(Pair.of(min + step * i, primaryColStructure))));
+        }
+        return boundaries;
+    }
+
+    private List<PrimaryKeys> splitByRowCount(String dbName, String tableName, List<ColumnStructure> primaryColStructures, long rowsPerRange, int rangeNum) {
+        List<PrimaryKeys> boundaries = Lists.newArrayList();
+        PrimaryKeys lower = null;
+        for (int i = 1; i < rangeNum; i++) {
+            PrimaryKeys upper = DBQueryService.queryChunkBoundary(sourceDataSource, dbName, tableName, primaryColStructures,
+                    new PkRange(lower, null), rowsPerRange);
+            if (upper == null) {
+                break;
+            }
+            boundaries.add(upper);
+            lower = upper;
+        }
+        return boundaries;
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.mysqlserverutilbak.mysql;
 
+import com.example.mysqlserverutilbak.mysql.util.ThrottleConfig;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import lombok.Data;
@@ -12,7 +13,163 @@ public class ValidateConfig {
     private int corePoolSize;
     private int maximumPoolSize;
     private long keepAliveTime;
+    // record content 对比阶段同一 db 下同时执行的任务数上限，<= 0 不限制
+    private int maxTasksPerDatabase = 16;
     private Map<String, Set<String>> coreTables = Maps.newHashMap();
     private Map<String,Set<String>> excludeDBAndTable = Maps.newHashMap();
     private Set<String> excludeDataBase = Sets.newHashSet();
+    // FULL: 启动时全量校验；INCREMENTAL: 跳过全量校验，跟随 source binlog 校验变更的记录
+    private RunMode runMode = RunMode.FULL;
+    // INCREMENTAL 模式的 binlog 配置
+    private BinlogConfig binlog = new BinlogConfig();
+    // FULL 模式的 checkpoint 文件，为空时不记录
+    private String checkpointFile = "log/checkpoint.jsonl";
+    // 从 checkpoint 继续上次中断的校验
+    private boolean resume;
+    // range 进度写入 checkpoint 的最小间隔
+    private long checkpointIntervalMillis = 5000;
+    // [DIFF_FROM_RECORD_NUM] 的统计方式
+    private CountMode countMode = CountMode.EXACT;
+    // 按 db -> tables 指定始终 EXACT / ESTIMATE 的 table，"*" 表示 db 下所有 table，优先于 countMode
+    private Map<String, Set<String>> exactCountTables = Maps.newHashMap();
+    private Map<String, Set<String>> estimateCountTables = Maps.newHashMap();
+    // TABLE_ROWS 估算值允许的相对误差
+    private double estimateTolerance = 0.1;
+    // 单条 count(*) 语句的超时时间，<= 0 不限制
+    private int countTimeoutSeconds = 300;
+    // records 对比前先比较整张 table / range 的指纹，一致时跳过 records 对比
+    private FingerprintMode fingerprintMode = FingerprintMode.CHECKSUM_TABLE;
+    // record content 的对比方式
+    private CompareMode compareMode = CompareMode.ROW;
+    // 一致性快照读取与差异登记前的延迟复核，减少对比期间正常变更造成的差异
+    private ConsistencyConfig consistency = new ConsistencyConfig();
+    // SAMPLE 模式的样本量配置
+    private SampleConfig sample = new SampleConfig();
+    // ROW 模式下每个 range 预取的批次数
+    private int prefetchPages = 2;
+    // ROW 模式下每个 range 最多对比的 source 记录数，超出时登记 OUT_OF_LIMIT；<= 0 对比到 range 的右边界
+    private long rowCompareLimit;
+    // 差异报告的目录、格式，是否 gzip 压缩
+    private String reportDir = "log";
+    private ReportFormat reportFormat = ReportFormat.TEXT;
+    private boolean reportCompress;
+    // 差异主键的落盘目录，每张 table 一个文件；为空时只保留样本，样本存满后停止对比该 table
+    private String diffSpillDir = "log/diff";
+    // 按 db -> table 配置 records 查询的列，"*" 表示 db 下所有 table，指定 table 的配置优先
+    private Map<String, Map<String, ColumnFilter>> columnFilters = Maps.newHashMap();
+    // records 批次大小的自适应配置
+    private BatchConfig batch = new BatchConfig();
+    // CHECKSUM 模式下每个主键 chunk 的记录数
+    private int checksumChunkSize = 10000;
+    // source 记录数达到该值的 table 按主键切分为多个 range 并行对比
+    private long splitThresholdRows = 2000000;
+    // 切分时每个 range 的目标记录数
+    private long rowsPerRange = 1000000;
+    // 单个 table 最多切分的 range 数
+    private int maxRangesPerTable = 32;
+    // source / target 的查询并发与读取速率限制
+    private ThrottleConfig sourceThrottle = new ThrottleConfig();
+    private ThrottleConfig targetThrottle = new ThrottleConfig();
+
+    public enum RunMode {
+        FULL,
+        INCREMENTAL,
+    }
+
+    @Data
+    public static class BinlogConfig {
+        // 伪装为 replica 的 server_id，同一 source 上必须唯一
+        private long serverId = 65535;
+        // 起始 binlog 文件与位置，为空时从当前位置开始
+        private String filename;
+        private long position = 4;
+        // 变更记录经过该时间 (复制延迟) 后再与 target 对比
+        private long graceMillis = 10000;
+        // 检查到期脏记录的间隔
+        private long recheckIntervalMillis = 1000;
+        // 对比不一致时重新等待 graceMillis 的次数，超过后登记差异
+        private int recheckRetries = 3;
+        // 有新的差异时向报告追加汇总的间隔
+        private long summaryIntervalMillis = 600000;
+    }
+
+    @Data
+    public static class BatchConfig {
+        // 每批次读取的目标字节数
+        private long targetBytes = 4 * 1024 * 1024;
+        // 每批次读取的目标耗时，超过时减小批次，<= 0 不限制
+        private long targetMillis = 1000;
+        private int minRows = 50;
+        private int maxRows = 10000;
+    }
+
+    @Data
+    public static class ConsistencyConfig {
+        // ROW / SAMPLE 模式的每个 range 在 source、target 上各自开启 START TRANSACTION WITH CONSISTENT SNAPSHOT 后扫描
+        private boolean snapshot;
+        // 差异登记前等待该时间后按主键重新对比，<= 0 不复核；源库持续写入时建议 10000
+        private long recheckDelayMillis;
+        // 复核轮数，每轮只复核上一轮仍不一致的主键
+        private int recheckRounds = 2;
+        // 差异数超过该值的 table 不复核，直接登记
+        private int recheckMaxKeys = 100000;
+    }
+
+    @Data
+    public static class SampleConfig {
+        // table 的差异记录比例不低于 divergenceRate 时，抽样发现差异的概率不低于 confidence
+        private double confidence = 0.99;
+        private double divergenceRate = 0.001;
+    }
+
+    @Data
+    public static class ColumnFilter {
+        // 非空时只对比这些列 (及主键列)
+        private Set<String> includeColumns = Sets.newHashSet();
+        // 不对比的列，主键列除外
+        private Set<String> excludeColumns = Sets.newHashSet();
+        // 只对比服务端计算的 MD5(col)，适用于大 TEXT / BLOB 列
+        private Set<String> hashColumns = Sets.newHashSet();
+    }
+
+    public enum ReportFormat {
+        TEXT(".txt"),
+        JSON_LINES(".jsonl");
+
+        private final String suffix;
+
+        ReportFormat(String suffix) {
+            this.suffix = suffix;
+        }
+
+        public String getSuffix() {
+            return suffix;
+        }
+    }
+
+    public enum CountMode {
+        // source / target 并发 count(*)，大 table 按主键 range 并行 count
+        EXACT,
+        // 比较 information_schema.TABLES.TABLE_ROWS，超出 estimateTolerance 时再 count(*) 确认
+        ESTIMATE,
+    }
+
+    public enum FingerprintMode {
+        NONE,
+        // 未切分的 table 两侧引擎一致时使用 CHECKSUM TABLE ... EXTENDED，其余按 AGGREGATE
+        CHECKSUM_TABLE,
+        // 服务端计算 COUNT(*) + BIT_XOR(CRC32(row))，与 CHECKSUM 模式的 chunk checksum 相同
+        AGGREGATE,
+    }
+
+    public enum CompareMode {
+        // 逐批拉取 source / target records 在内存中对比
+        ROW,
+        // 按主键 chunk 对比服务端 checksum，仅 checksum 不一致时二分下钻拉取 records
+        CHECKSUM,
+        // source / target 按主键排序的流式游标 merge-join，不按批次查询 target
+        MERGE_JOIN,
+        // 按主键 hash 分桶抽样对比，按 sample 配置的置信度估计差异比例，不做完整对比
+        SAMPLE,
+    }
 }
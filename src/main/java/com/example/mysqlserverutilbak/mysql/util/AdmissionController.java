@@ -0,0 +1,161 @@
+package com.example.mysqlserverutilbak.mysql.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个 DataSource 的准入控制，SqlUtils 的查询执行前后经过：
+ * 1. 并发查询数上限 (AIMD)：查询耗时超过阈值或服务端 Threads_running 超过阈值时上限减为 3/4，
+ *    之后每完成 limit 次正常查询上限加一，直至 maxConcurrentQueries
+ * 2. rows/s、bytes/s 令牌桶：读取结果后扣减，令牌为负 (欠债) 时阻塞当前线程直至补足，流式查询按批次扣减
+ */
+@Slf4j
+public class AdmissionController {
+
+    // 两次乘性下降的最小间隔，避免同一波慢查询把上限一路压到下界
+    private static final long DECREASE_INTERVAL_MILLIS = 1000;
+
+    private final String name;
+    private final ThrottleConfig config;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final TokenBucket rowBucket;
+    private final TokenBucket byteBucket;
+
+    private final int maxLimit;
+    private int limit;
+    private int running;
+    private int successSinceAdjust;
+    private long lastDecreaseMillis;
+    private volatile int threadsRunning;
+
+    public AdmissionController(String name, DataSource dataSource, ThrottleConfig config) {
+        this.name = name;
+        this.config = config;
+        this.maxLimit = config.getMaxConcurrentQueries() <= 0 ? Integer.MAX_VALUE : config.getMaxConcurrentQueries();
+        this.limit = maxLimit;
+        this.rowBucket = new TokenBucket(config.getRowsPerSecond());
+        this.byteBucket = new TokenBucket(config.getBytesPerSecond());
+        if (config.getThreadsRunningThreshold() > 0 && config.getProbeIntervalMillis() > 0) {
+            ScheduledExecutorService probe = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("AdmissionProbe-" + name).build());
+            probe.scheduleWithFixedDelay(() -> probeThreadsRunning(dataSource),
+                    config.getProbeIntervalMillis(), config.getProbeIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // 阻塞直至并发查询数低于当前上限
+    public void acquire() {
+        lock.lock();
+        try {
+            while (running >= limit) {
+                available.awaitUninterruptibly();
+            }
+            running++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // elapsedMillis < 0 时不参与自适应调整 (流式查询的耗时与结果集大小有关)
+    public void release(long elapsedMillis) {
+        lock.lock();
+        try {
+            running--;
+            boolean overloaded = elapsedMillis > config.getLatencyThresholdMillis() && config.getLatencyThresholdMillis() > 0 ||
+                    threadsRunning > config.getThreadsRunningThreshold() && config.getThreadsRunningThreshold() > 0;
+            if (overloaded) {
+                decrease(elapsedMillis);
+            } else if (elapsedMillis >= 0 && limit < maxLimit && ++successSinceAdjust >= limit) {
+                limit++;
+                successSinceAdjust = 0;
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 扣减令牌，欠债时阻塞
+    public void throttle(long rows, long bytes) {
+        long waitNanos = Math.max(rowBucket.consume(rows), byteBucket.consume(bytes));
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void decrease(long elapsedMillis) {
+        long now = System.currentTimeMillis();
+        if (now - lastDecreaseMillis < DECREASE_INTERVAL_MILLIS) {
+            return;
+        }
+        int newLimit = Math.max(Math.max(config.getMinConcurrentQueries(), 1), Math.min(limit, running + 1) * 3 / 4);
+        if (newLimit < limit) {
+            log.warn("[AdmissionController] {} overloaded, elapsedMillis = {}, threadsRunning = {}, limit {} -> {}",
+                    name, elapsedMillis, threadsRunning, limit, newLimit);
+            limit = newLimit;
+        }
+        lastDecreaseMillis = now;
+        successSinceAdjust = 0;
+    }
+
+    // 直接使用连接池连接，不经过准入控制
+    private void probeThreadsRunning(DataSource dataSource) {
+        try (Connection conn = dataSource.getConnection();
+             Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("SHOW GLOBAL STATUS LIKE 'Threads_running'")) {
+            if (rs.next()) {
+                threadsRunning = rs.getInt(2);
+            }
+            if (threadsRunning > config.getThreadsRunningThreshold()) {
+                lock.lock();
+                try {
+                    decrease(-1);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            log.error("[AdmissionController] {} probe Threads_running fail", name, e);
+        }
+    }
+
+    // 容量为 1 秒的令牌桶，rate <= 0 时不限制
+    private static class TokenBucket {
+        private final long rate;
+        private double tokens;
+        private long lastRefillNanos = System.nanoTime();
+
+        TokenBucket(long rate) {
+            this.rate = rate;
+            this.tokens = rate;
+        }
+
+        // 返回需要等待的纳秒数
+        synchronized long consume(long amount) {
+            if (rate <= 0 || amount <= 0) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - lastRefillNanos) * rate / 1e9);
+            lastRefillNanos = now;
+            tokens -= amount;
+            return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.mysqlserverutilbak.mysql.util;
+
+import java.util.Arrays;
+
+/**
+ * 可增长的连续 byte[]，用于主键的规范化编码，reset 后复用底层数组。
+ */
+public class ByteArena {
+
+    private byte[] buf;
+    private int size;
+
+    public ByteArena(int capacity) {
+        this.buf = new byte[Math.max(capacity, 16)];
+    }
+
+    public void writeByte(int value) {
+        ensureCapacity(size + 1);
+        buf[size++] = (byte) value;
+    }
+
+    // big-endian
+    public void writeLong(long value) {
+        ensureCapacity(size + Long.BYTES);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buf[size++] = (byte) (value >>> shift);
+        }
+    }
+
+    // 无符号 varint
+    public void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeByte(value);
+    }
+
+    public void writeBytes(byte[] src, int offset, int length) {
+        ensureCapacity(size + length);
+        System.arraycopy(src, offset, buf, size, length);
+        size += length;
+    }
+
+    public byte[] array() {
+        return buf;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    // [offset, offset + length) 与 other 的 [otherOffset, otherOffset + otherLength) 是否相同
+    public boolean rangeEquals(int offset, int length, ByteArena other, int otherOffset, int otherLength) {
+        if (length != otherLength) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buf[offset + i] != other.buf[otherOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // [offset, offset + length) 的 64 位 hash (FNV-1a + 末尾混淆)
+    public long hash64(int offset, int length) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (buf[i] & 0xFF)) * 0x100000001B3L;
+        }
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        return hash ^ (hash >>> 33);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, capacity));
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.mysqlserverutilbak.mysql.util;
+
+/**
+ * 查询结果读取的记录数与字节数，SqlUtils 据此扣减 rows/s、bytes/s 令牌
+ */
+public interface FetchStats {
+
+    int getFetchedRows();
+
+    long getFetchedBytes();
+}
@@ -0,0 +1,187 @@
+package com.example.mysqlserverutilbak.mysql.util;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * 持有一个连接的查询会话，由一个 worker 在一张 table (range) 的扫描期间独占使用：
+ * 1. 会话内复用连接与 PreparedStatement，不再每次查询都从连接池借还连接、重新 prepare
+ * 2. submit 在会话自己的线程上异步执行查询，调用方可以在对比当前批次的同时读取下一批次
+ * 3. startSnapshot 开启一致性快照，之后的查询读取同一时刻的数据，归还连接前结束事务；快照内的查询失败后会话的查询均返回 null
+ * 一个连接上的语句只能串行执行，executeQuery 与 submit 的查询按调用顺序依次执行。
+ * 与 SqlUtils.executeQuery 一样经过准入控制，查询失败时返回 null。
+ */
+@Slf4j
+public class SqlSession implements AutoCloseable {
+
+    private final DataSource dataSource;
+    private final AdmissionController admissionController;
+    private final Map<String, PreparedStatement> statements = Maps.newHashMap();
+    private Connection conn;
+    // 连接上有 startSnapshot 开启的事务
+    private boolean inSnapshot;
+    // 快照事务因查询失败结束，之后的查询不再是同一时刻的数据，全部按失败处理
+    private boolean snapshotLost;
+    private final Object executorLock = new Object();
+    private ExecutorService executor;
+    private boolean closed;
+
+    private SqlSession(DataSource dataSource) {
+        this.dataSource = dataSource;
+        this.admissionController = SqlUtils.getAdmissionController(dataSource);
+    }
+
+    // 连接在第一次查询时获取
+    public static SqlSession open(DataSource dataSource) {
+        return new SqlSession(dataSource);
+    }
+
+    public synchronized <T> T executeQuery(String sql, Function<ResultSet, T> func, Object... args) {
+        if (closed) {
+            return null;
+        }
+        if (snapshotLost) {
+            log.error("consistent snapshot is lost, skip session sql query, sql = {}", sql);
+            return null;
+        }
+        if (admissionController != null) {
+            admissionController.acquire();
+        }
+        long start = System.currentTimeMillis();
+        T res = null;
+        try {
+            PreparedStatement ps = prepare(sql);
+            for (int i = 0; i < args.length; i++) {
+                ps.setObject(i + 1, args[i]);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                res = func.apply(rs);
+            }
+            return res;
+        } catch (SQLException e) {
+            log.error("execute session sql query fail, sql = {}", sql, e);
+            // 连接可能已不可用，下一次查询重新获取；快照事务随连接结束，不能在新连接上继续
+            snapshotLost = inSnapshot;
+            closeConnection();
+            return null;
+        } finally {
+            if (admissionController != null) {
+                admissionController.release(System.currentTimeMillis() - start);
+                admissionController.throttle(res instanceof FetchStats ? ((FetchStats) res).getFetchedRows() : 1,
+                        res instanceof FetchStats ? ((FetchStats) res).getFetchedBytes() : 0);
+            }
+        }
+    }
+
+    /**
+     * 以 REPEATABLE READ 开启 START TRANSACTION WITH CONSISTENT SNAPSHOT，事务在 close 或查询失败归还连接时结束。
+     * 查询失败结束的快照不会在新连接上重新开启，之后的查询直接返回 null，由调用方按查询失败处理。
+     * 开启失败时返回 false，之后的查询仍按自动提交执行。
+     */
+    public synchronized boolean startSnapshot() {
+        if (closed) {
+            return false;
+        }
+        try {
+            if (conn == null) {
+                conn = dataSource.getConnection();
+            }
+            try (Statement statement = conn.createStatement()) {
+                // 只对下一个事务生效，不改变连接池中连接的会话隔离级别
+                statement.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+                statement.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT");
+            }
+            inSnapshot = true;
+            return true;
+        } catch (SQLException e) {
+            log.error("start consistent snapshot fail", e);
+            closeConnection();
+            return false;
+        }
+    }
+
+    // 在会话线程上异步执行查询
+    public <T> CompletableFuture<T> submit(String sql, Function<ResultSet, T> func, Object... args) {
+        return CompletableFuture.supplyAsync(() -> executeQuery(sql, func, args), getExecutor());
+    }
+
+    // 在会话线程上异步执行一组查询，work 内通过传入的会话查询
+    public <T> CompletableFuture<T> submit(Function<SqlSession, T> work) {
+        return CompletableFuture.supplyAsync(() -> work.apply(this), getExecutor());
+    }
+
+    private PreparedStatement prepare(String sql) throws SQLException {
+        if (conn == null) {
+            conn = dataSource.getConnection();
+        }
+        PreparedStatement ps = statements.get(sql);
+        if (ps == null) {
+            ps = conn.prepareStatement(sql);
+            statements.put(sql, ps);
+        }
+        return ps;
+    }
+
+    // 不与查询共用锁，查询执行期间也可以提交下一个查询
+    private ExecutorService getExecutor() {
+        synchronized (executorLock) {
+            if (executor == null) {
+                executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SqlSession-%d").build());
+            }
+            return executor;
+        }
+    }
+
+    private void closeConnection() {
+        for (PreparedStatement ps : statements.values()) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                log.error("session statement close fail", e);
+            }
+        }
+        statements.clear();
+        // 只读事务，结束后归还连接，避免连接池中的连接带着未结束的事务
+        if (conn != null && inSnapshot) {
+            try (Statement statement = conn.createStatement()) {
+                statement.execute("ROLLBACK");
+            } catch (SQLException e) {
+                log.error("session snapshot rollback fail", e);
+            }
+        }
+        inSnapshot = false;
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                log.error("session connection close fail", e);
+            }
+            conn = null;
+        }
+    }
+
+    // 正在执行的查询结束后归还连接，尚未开始的异步查询返回 null
+    @Override
+    public synchronized void close() {
+        closed = true;
+        closeConnection();
+        synchronized (executorLock) {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+}
@@ -7,9 +7,22 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 @Slf4j
 public class SqlUtils {
+    // 每个 DataSource 的准入控制，未注册的 DataSource 不限制
+    private static final Map<DataSource, AdmissionController> ADMISSION_CONTROLLERS = new ConcurrentHashMap<>();
+
+    public static void registerAdmissionController(DataSource ds, AdmissionController admissionController) {
+        ADMISSION_CONTROLLERS.put(ds, admissionController);
+    }
+
+    public static AdmissionController getAdmissionController(DataSource ds) {
+        return ds == null ? null : ADMISSION_CONTROLLERS.get(ds);
+    }
+
     public static void executeUpdate(DataSource ds, String sql, Object... args) {
         Connection conn = null;
         PreparedStatement preparedStatement = null;
@@ -38,17 +51,32 @@ public class SqlUtils {
     }
 
     public static <T> T executeQuery(DataSource ds, String sql, Function<ResultSet, T> func, Object... args) {
+        return executeQuery(ds, sql, 0, func, args);
+    }
+
+    // queryTimeoutSeconds > 0 时超时由 driver 取消服务端语句，按查询失败返回 null
+    public static <T> T executeQuery(DataSource ds, String sql, int queryTimeoutSeconds, Function<ResultSet, T> func, Object... args) {
+        AdmissionController admissionController = getAdmissionController(ds);
+        if (admissionController != null) {
+            admissionController.acquire();
+        }
+        long start = System.currentTimeMillis();
+        T res = null;
         Connection conn = null;
         PreparedStatement ps = null;
         ResultSet rs = null;
         try {
             conn = ds.getConnection();
             ps = conn.prepareStatement(sql);
+            if (queryTimeoutSeconds > 0) {
+                ps.setQueryTimeout(queryTimeoutSeconds);
+            }
             for (int i = 0; i < args.length; i++) {
                 ps.setObject(i+1, args[i]);
             }
             rs = ps.executeQuery();
-            return func.apply(rs);
+            res = func.apply(rs);
+            return res;
         } catch (SQLException e) {
             log.error("execute sql query fail, sql = {}",sql,e);
             return null;
@@ -66,6 +94,68 @@ public class SqlUtils {
             } catch (SQLException e) {
                 System.out.println("connection close fail");
             }
+            // 连接归还后再按令牌桶等待
+            if (admissionController != null) {
+                admissionController.release(System.currentTimeMillis() - start);
+                // 非 FetchStats 的结果 (count / checksum 等) 只返回少量数据，按 1 条记录计
+                admissionController.throttle(res instanceof FetchStats ? ((FetchStats) res).getFetchedRows() : 1,
+                        res instanceof FetchStats ? ((FetchStats) res).getFetchedBytes() : 0);
+            }
+        }
+    }
+
+    /**
+     * 流式查询：fetchSize = Integer.MIN_VALUE 时 mysql driver 逐行读取结果，不在客户端缓存整个结果集。
+     * 流式结果集关闭时 driver 会读完剩余记录，因此 func 提前结束时先 cancel 服务端查询。
+     * 流式查询的耗时与结果集大小有关，不参与并发上限的自适应调整；rows/s、bytes/s 由调用方按批次扣减。
+     */
+    public static <T> T executeStreamingQuery(DataSource ds, String sql, Function<ResultSet, T> func, Object... args) {
+        AdmissionController admissionController = getAdmissionController(ds);
+        if (admissionController != null) {
+            admissionController.acquire();
+        }
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            conn = ds.getConnection();
+            ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(Integer.MIN_VALUE);
+            for (int i = 0; i < args.length; i++) {
+                ps.setObject(i+1, args[i]);
+            }
+            rs = ps.executeQuery();
+            T res;
+            try {
+                res = func.apply(rs);
+            } catch (RuntimeException e) {
+                ps.cancel();
+                throw e;
+            }
+            if (rs.next()) {
+                ps.cancel();
+            }
+            return res;
+        } catch (SQLException e) {
+            log.error("execute streaming sql query fail, sql = {}",sql,e);
+            return null;
+        } finally {
+            try {
+                if (rs != null) {
+                    rs.close();
+                }
+                if (ps != null) {
+                    ps.close();
+                }
+                if (conn != null) {
+                    conn.close();
+                }
+            } catch (SQLException e) {
+                log.error("streaming connection close fail", e);
+            }
+            if (admissionController != null) {
+                admissionController.release(-1);
+            }
         }
     }
 
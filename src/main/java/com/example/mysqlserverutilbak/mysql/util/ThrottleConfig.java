@@ -0,0 +1,24 @@
+package com.example.mysqlserverutilbak.mysql.util;
+
+import lombok.Data;
+
+/**
+ * 单个 DataSource 的准入控制配置，<= 0 表示不限制该项
+ */
+@Data
+public class ThrottleConfig {
+    // 同时执行的查询数上限，自适应调整的上界
+    private int maxConcurrentQueries = 32;
+    // 自适应调整的下界
+    private int minConcurrentQueries = 2;
+    // 每秒读取的记录数
+    private long rowsPerSecond;
+    // 每秒读取的字节数 (估算)
+    private long bytesPerSecond;
+    // 单次查询超过该耗时视为服务端过载，并发上限乘性下降
+    private long latencyThresholdMillis = 2000;
+    // 服务端 Threads_running 超过该值视为过载
+    private int threadsRunningThreshold = 64;
+    // Threads_running 探测间隔
+    private long probeIntervalMillis = 5000;
+}
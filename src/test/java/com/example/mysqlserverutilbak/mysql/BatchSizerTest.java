@@ -0,0 +1,46 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import org.junit.jupiter.api.Test;
+
+import static com.example.mysqlserverutilbak.mysql.ValidateConfig.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BatchSizerTest {
+
+    private BatchConfig config() {
+        BatchConfig config = new BatchConfig();
+        config.setTargetBytes(1024 * 1024);
+        config.setTargetMillis(1000);
+        config.setMinRows(50);
+        config.setMaxRows(10000);
+        return config;
+    }
+
+    @Test
+    void initialSizeFromAvgRowLength() {
+        assertEquals(1024, new BatchSizer(config(), 1024).getBatchSize());
+        assertEquals(50, new BatchSizer(config(), 1024 * 1024).getBatchSize());
+        assertEquals(10000, new BatchSizer(config(), 10).getBatchSize());
+        assertEquals(DBQueryService.LIMIT, new BatchSizer(config(), 0).getBatchSize());
+    }
+
+    @Test
+    void growsAtMostDoublePerBatch() {
+        BatchSizer sizer = new BatchSizer(config(), 0);
+        sizer.record(500, 500 * 20, 10);
+        assertEquals(1000, sizer.getBatchSize());
+        sizer.record(1000, 1000 * 20, 10);
+        assertEquals(2000, sizer.getBatchSize());
+    }
+
+    @Test
+    void shrinksForWideRowsAndSlowFetch() {
+        BatchSizer sizer = new BatchSizer(config(), 1024);
+        // 实际行长度是估计值的 3 倍，平均后为 2048
+        sizer.record(1024, 1024 * 3072, 100);
+        assertEquals(512, sizer.getBatchSize());
+        // 读取耗时为目标的 2 倍
+        sizer.record(512, 512 * 2048, 2000);
+        assertEquals(256, sizer.getBatchSize());
+    }
+}
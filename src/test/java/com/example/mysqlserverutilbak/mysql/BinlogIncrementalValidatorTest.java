@@ -0,0 +1,52 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.List;
+
+import static com.example.mysqlserverutilbak.mysql.Record.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinlogIncrementalValidatorTest {
+
+    private final List<ColumnStructure> primaryColStructures = ImmutableList.of(
+            column("tenant_id", "int", "int(10) unsigned", 2), column("code", "varchar", "varchar(32)", 4));
+
+    @Test
+    void primaryKeysFromIncludedColumns() {
+        // binlog_row_image = MINIMAL：row 只包含 includedColumns 中的列，第 3 列缺失
+        BitSet includedColumns = new BitSet();
+        includedColumns.set(0);
+        includedColumns.set(1);
+        includedColumns.set(3);
+        Serializable[] row = {1L, -1, "a1".getBytes(StandardCharsets.UTF_8)};
+
+        PrimaryKeys primaryKeys = BinlogIncrementalValidator.toPrimaryKeys(primaryColStructures, includedColumns, row);
+        // int unsigned 还原为无符号值，非 binary 字符串转为 String
+        assertEquals(ImmutableList.of(4294967295L, "a1"), primaryKeys.getValues());
+    }
+
+    @Test
+    void missingPrimaryColumn() {
+        BitSet includedColumns = new BitSet();
+        includedColumns.set(1);
+        includedColumns.set(2);
+        Serializable[] row = {7, "x"};
+
+        assertNull(BinlogIncrementalValidator.toPrimaryKeys(primaryColStructures, includedColumns, row));
+    }
+
+    private static ColumnStructure column(String name, String dataType, String columnType, long ordinalPosition) {
+        ColumnStructure column = new ColumnStructure();
+        column.setColumnName(name);
+        column.setDataType(dataType);
+        column.setColumnType(columnType);
+        column.setColumnKey(ColumnStructure.columnKey.PRI.name());
+        column.setOrdinalPosition(ordinalPosition);
+        return column;
+    }
+}
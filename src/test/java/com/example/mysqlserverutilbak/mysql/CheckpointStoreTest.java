@@ -0,0 +1,117 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.example.mysqlserverutilbak.mysql.CheckpointStore.*;
+import static com.example.mysqlserverutilbak.mysql.DifferenceInfo.*;
+import static com.example.mysqlserverutilbak.mysql.Record.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void resumeRestoresProgressAndSkipsDoneTables() {
+        ValidateConfig config = new ValidateConfig();
+        config.setCheckpointFile(dir.resolve("checkpoint.jsonl").toString());
+        config.setCheckpointIntervalMillis(0);
+        List<ColumnStructure> primaryColStructures = Lists.newArrayList(column("id"));
+
+        CheckpointStore store = newStore(config);
+        store.saveRawSource(ImmutableMap.of("db", ImmutableSet.of("done_table", "big_table", "uncounted_table")));
+        store.saveTableCount("db", "done_table", 1L);
+        store.saveTableCount("db", "big_table", 3000000L);
+        store.saveTableDone("db", "done_table");
+        store.saveSplit("db", "big_table", Lists.newArrayList(new PkRange(null, pk(primaryColStructures, 100L)), new PkRange(pk(primaryColStructures, 100L), null)));
+        RangeCheckpoint checkpoint = store.getRangeCheckpoint("db", "big_table", 1);
+        RecordContentDiffInfo diffInfo = new RecordContentDiffInfo("db", "big_table");
+        diffInfo.getRecordsOnlyInSource().add(record(primaryColStructures, 150L));
+        store.saveProgress(checkpoint, pk(primaryColStructures, 200L), diffInfo, false);
+
+        config.setResume(true);
+        CheckpointStore resumed = newStore(config);
+        assertTrue(resumed.isResumed());
+        assertEquals(ImmutableMap.of("db", ImmutableSet.of("big_table", "uncounted_table")), resumed.getRawSource());
+        assertEquals(3000000L, resumed.getSourceCounts().get("db").get("big_table"));
+        assertNull(resumed.getSourceCounts().get("db").get("uncounted_table"));
+
+        // 只有记录了 range 进度的 table 追加到上次的差异主键文件
+        assertTrue(resumed.hasRangeProgress("db", "big_table"));
+        assertFalse(resumed.hasRangeProgress("db", "uncounted_table"));
+
+        List<PkRange> ranges = resumed.getSplit("db", "big_table", primaryColStructures);
+        assertEquals(2, ranges.size());
+        assertEquals(Lists.newArrayList(100L), ranges.get(1).getLower().getValues());
+
+        RangeCheckpoint restored = resumed.getRangeCheckpoint("db", "big_table", 1);
+        assertFalse(restored.isDone());
+        assertEquals(Lists.newArrayList(200L), restored.resumeRange(ranges.get(1), primaryColStructures).getLower().getValues());
+        assertEquals(1, restored.getRestoredDiff().getRecordsOnlyInSource().size());
+    }
+
+    @Test
+    void restorePrimaryValueWithColumnType() {
+        // 超过 2^53 的 bigint 不能以 String 绑定
+        assertEquals(9007199254740993L, toPrimaryValue("9007199254740993", column("id")));
+        ColumnStructure unsigned = column("id");
+        unsigned.setColumnType("bigint(20) unsigned");
+        assertEquals(new BigInteger("18446744073709551615"), toPrimaryValue("18446744073709551615", unsigned));
+        ColumnStructure decimal = column("amount");
+        decimal.setDataType("decimal");
+        assertEquals(new BigDecimal("1.50"), toPrimaryValue("1.50", decimal));
+        ColumnStructure code = column("code");
+        code.setDataType("varchar");
+        assertEquals("001", toPrimaryValue("001", code));
+        assertNull(toPrimaryValue(null, code));
+    }
+
+    @Test
+    void startOverWithoutResume() {
+        ValidateConfig config = new ValidateConfig();
+        config.setCheckpointFile(dir.resolve("checkpoint.jsonl").toString());
+        newStore(config).saveRawSource(ImmutableMap.of());
+
+        CheckpointStore store = newStore(config);
+        assertFalse(store.isResumed());
+        assertFalse(store.hasRangeProgress("db", "big_table"));
+    }
+
+    private CheckpointStore newStore(ValidateConfig config) {
+        CheckpointStore store = new CheckpointStore();
+        ReflectionTestUtils.setField(store, "config", config);
+        store.open();
+        return store;
+    }
+
+    private ColumnStructure column(String name) {
+        ColumnStructure column = new ColumnStructure();
+        column.setColumnName(name);
+        column.setDataType("bigint");
+        column.setColumnKey(ColumnStructure.columnKey.PRI.name());
+        return column;
+    }
+
+    private PrimaryKeys pk(List<ColumnStructure> primaryColStructures, Object value) {
+        return new PrimaryKeys(Lists.newArrayList(Pair.of(value, primaryColStructures.get(0))));
+    }
+
+    private Record record(List<ColumnStructure> primaryColStructures, long id) {
+        Record record = new Record();
+        record.setColumnValues(Lists.newArrayList(id, "name"));
+        record.setPrimaryColValues(Lists.newArrayList(Pair.of(id, primaryColStructures.get(0))));
+        return record;
+    }
+}
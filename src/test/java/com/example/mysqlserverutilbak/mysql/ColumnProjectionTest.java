@@ -0,0 +1,59 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.example.mysqlserverutilbak.mysql.ValidateConfig.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnProjectionTest {
+
+    private final ColumnStructure id = column("id", "bigint", 1);
+    private final List<ColumnStructure> columns = ImmutableList.of(id, column("name", "varchar", 2),
+            column("content", "longtext", 3), column("gmt_modified", "datetime", 4));
+
+    @Test
+    void selectAllWithoutFilter() {
+        ColumnProjection projection = ColumnProjection.of(new ColumnFilter(), columns, ImmutableList.of(id));
+        assertTrue(projection.isAll());
+        assertEquals("*", projection.getSelectList());
+        assertSame(columns, projection.getColumns());
+    }
+
+    @Test
+    void excludeAndHashColumns() {
+        ColumnFilter filter = new ColumnFilter();
+        // 主键列不会被排除
+        filter.setExcludeColumns(Sets.newHashSet("gmt_modified", "id"));
+        filter.setHashColumns(Sets.newHashSet("content"));
+        ColumnProjection projection = ColumnProjection.of(filter, columns, ImmutableList.of(id));
+
+        assertFalse(projection.isAll());
+        assertEquals("`id`,`name`,MD5(`content`) AS `content`", projection.getSelectList());
+        assertEquals(ImmutableList.of("id", "name", "content"),
+                projection.getColumns().stream().map(ColumnStructure::getColumnName).collect(Collectors.toList()));
+        assertEquals(ColumnProjection.HASH_DATA_TYPE, projection.getColumns().get(2).getDataType());
+    }
+
+    @Test
+    void includeKeepsPrimaryAndHashColumns() {
+        ColumnFilter filter = new ColumnFilter();
+        filter.setIncludeColumns(Sets.newHashSet("name"));
+        filter.setHashColumns(Sets.newHashSet("content"));
+        ColumnProjection projection = ColumnProjection.of(filter, columns, ImmutableList.of(id));
+
+        assertEquals("`id`,`name`,MD5(`content`) AS `content`", projection.getSelectList());
+    }
+
+    private static ColumnStructure column(String name, String dataType, long ordinalPosition) {
+        ColumnStructure column = new ColumnStructure();
+        column.setColumnName(name);
+        column.setDataType(dataType);
+        column.setOrdinalPosition(ordinalPosition);
+        return column;
+    }
+}
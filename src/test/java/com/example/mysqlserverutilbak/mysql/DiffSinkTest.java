@@ -0,0 +1,71 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.mysqlserverutilbak.mysql.DiffSink.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffSinkTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writeAndReadAcrossAppend() throws Exception {
+        try (DiffSink sink = DiffSink.open(dir.toString(), "db", "t", false)) {
+            sink.write(DiffKind.SOURCE_ONLY, Arrays.asList(1L, "a"));
+            sink.write(DiffKind.SAME_PK_DIFF_VALUE, Arrays.asList(null, new byte[]{1, 2}));
+        }
+        // resume 时追加
+        try (DiffSink sink = DiffSink.open(dir.toString(), "db", "t", true)) {
+            sink.write(DiffKind.TARGET_ONLY, Arrays.asList(3L, "c"));
+        }
+
+        List<Pair<DiffKind, List<Object>>> read = Lists.newArrayList();
+        DiffSink.read(dir.resolve("db.t.diff.gz"), (kind, values) -> read.add(Pair.of(kind, values)));
+        assertEquals(3, read.size());
+        assertEquals(DiffKind.SOURCE_ONLY, read.get(0).getLeft());
+        assertEquals(Arrays.asList("1", "a"), read.get(0).getRight());
+        assertNull(read.get(1).getRight().get(0));
+        assertArrayEquals(new byte[]{1, 2}, (byte[]) read.get(1).getRight().get(1));
+        assertEquals(DiffKind.TARGET_ONLY, read.get(2).getLeft());
+    }
+
+    @Test
+    void openWithoutAppendDropsStaleFile() throws Exception {
+        try (DiffSink sink = DiffSink.open(dir.toString(), "db", "t", false)) {
+            sink.write(DiffKind.SOURCE_ONLY, Arrays.asList(1L));
+        }
+        DiffSink.open(dir.toString(), "db", "t", false).close();
+        assertFalse(dir.resolve("db.t.diff.gz").toFile().exists());
+    }
+
+    @Test
+    void stagingCommittedOrDiscarded() throws Exception {
+        try (DiffSink sink = DiffSink.open(dir.toString(), "db", "t", false)) {
+            sink.write(DiffKind.SOURCE_ONLY, Arrays.asList(1L));
+            // 降级的 merge-join 暂存的主键不进入 table 的 sink
+            DiffSink discarded = sink.newStaging();
+            discarded.write(DiffKind.TARGET_ONLY, Arrays.asList(2L));
+            discarded.discard();
+            DiffSink committed = sink.newStaging();
+            committed.write(DiffKind.SAME_PK_DIFF_VALUE, Arrays.asList(3L));
+            committed.commitTo(sink);
+        }
+
+        List<Pair<DiffKind, List<Object>>> read = Lists.newArrayList();
+        DiffSink.read(dir.resolve("db.t.diff.gz"), (kind, values) -> read.add(Pair.of(kind, values)));
+        assertEquals(2, read.size());
+        assertEquals(Arrays.asList("1"), read.get(0).getRight());
+        assertEquals(DiffKind.SAME_PK_DIFF_VALUE, read.get(1).getLeft());
+        // 暂存文件已删除
+        assertEquals(1, dir.toFile().list().length);
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.mysqlserverutilbak.mysql.DiffSink.*;
+import static com.example.mysqlserverutilbak.mysql.DifferenceInfo.*;
+import static com.example.mysqlserverutilbak.mysql.Record.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecheckQueueTest {
+
+    @TempDir
+    Path dir;
+
+    private final ValidateConfig config = new ValidateConfig();
+    private final ColumnStructure id = column();
+    private final List<ColumnStructure> primaryColStructures = Lists.newArrayList(id);
+    // 每次 recheckChunk 调用时仍不一致的主键，按调用顺序
+    private final List<Set<Long>> stillDiffPerCall = Lists.newArrayList();
+    private final List<List<List<Object>>> rechecked = Lists.newArrayList();
+    private RecheckQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        config.getConsistency().setRecheckDelayMillis(1);
+        config.getConsistency().setRecheckRounds(2);
+        config.setDiffSpillDir(dir.toString());
+        queue = new RecheckQueue() {
+            @Override
+            RecordContentDiffInfo recheckChunk(String dbName, String tableName, List<ColumnStructure> primaryColStructures,
+                                               RowComparator rowComparator, List<List<Object>> chunk) {
+                rechecked.add(chunk);
+                Set<Long> stillDiff = stillDiffPerCall.get(rechecked.size() - 1);
+                RecordContentDiffInfo chunkDiff = new RecordContentDiffInfo(dbName, tableName, null, chunk.size());
+                for (List<Object> key : chunk) {
+                    if (stillDiff.contains((Long) key.get(0))) {
+                        chunkDiff.addSourceOnly(record((Long) key.get(0)));
+                    }
+                }
+                return chunkDiff;
+            }
+        };
+        ReflectionTestUtils.setField(queue, "config", config);
+    }
+
+    @Test
+    void keysDisappearAfterFirstRound() throws Exception {
+        stillDiffPerCall.add(ImmutableSet.of());
+        RecordContentDiffInfo diffInfo = new RecordContentDiffInfo("db", "t");
+        diffInfo.addSourceOnly(record(1L));
+        diffInfo.addSamePkDiff(Pair.of(record(2L), record(2L)));
+
+        RecordContentDiffInfo result = submit(diffInfo);
+        assertFalse(result.hasDiff());
+        assertEquals(1, rechecked.size());
+    }
+
+    @Test
+    void onlyKeysStillDifferingAfterLastRoundAreRegistered() throws Exception {
+        stillDiffPerCall.add(ImmutableSet.of(2L, 3L));
+        stillDiffPerCall.add(ImmutableSet.of(2L));
+        DiffSink sink = DiffSink.open(dir.toString(), "db", "t", false);
+        RecordContentDiffInfo diffInfo = new RecordContentDiffInfo("db", "t", sink, RecordContentDiffInfo.RECORD_STORAGE_LIMIT);
+        diffInfo.addSourceOnly(record(1L));
+        diffInfo.addSourceOnly(record(2L));
+        diffInfo.addTargetOnly(record(3L));
+        sink.close();
+
+        RecordContentDiffInfo result = submit(diffInfo);
+        assertEquals(1, result.getSourceOnlyCount());
+        assertEquals(0, result.getTargetOnlyCount());
+        // 第二轮只复核第一轮仍不一致的主键，spill 文件中的主键按列类型还原
+        assertEquals(2, rechecked.size());
+        assertEquals(Arrays.asList(Arrays.asList(1L), Arrays.asList(2L), Arrays.asList(3L)), rechecked.get(0));
+        assertEquals(Arrays.asList(Arrays.asList(2L), Arrays.asList(3L)), rechecked.get(1));
+
+        // spill 文件只保留确认的差异
+        List<List<Object>> spilled = Lists.newArrayList();
+        DiffSink.read(dir.resolve("db.t.diff.gz"), (kind, values) -> spilled.add(values));
+        assertEquals(Arrays.asList(Arrays.asList("2")), spilled);
+    }
+
+    @Test
+    void tooManyKeysAreNotRechecked() throws Exception {
+        config.getConsistency().setRecheckMaxKeys(1);
+        RecordContentDiffInfo diffInfo = new RecordContentDiffInfo("db", "t");
+        diffInfo.addSourceOnly(record(1L));
+        diffInfo.addSourceOnly(record(2L));
+
+        assertSame(diffInfo, submit(diffInfo));
+        assertTrue(rechecked.isEmpty());
+    }
+
+    @Test
+    void incompleteKeysAreNotRechecked() throws Exception {
+        // 没有 sink 时样本已满，样本不是全部差异
+        RecordContentDiffInfo diffInfo = new RecordContentDiffInfo("db", "t", null, 1);
+        diffInfo.addSourceOnly(record(1L));
+        diffInfo.addSourceOnly(record(2L));
+
+        assertSame(diffInfo, submit(diffInfo));
+        assertTrue(rechecked.isEmpty());
+    }
+
+    @Test
+    void failedRecheckRegistersOriginalDiff() throws Exception {
+        // stillDiffPerCall 为空，recheckChunk 抛出异常
+        RecordContentDiffInfo diffInfo = new RecordContentDiffInfo("db", "t");
+        diffInfo.addSourceOnly(record(1L));
+
+        assertSame(diffInfo, submit(diffInfo));
+        assertEquals(1, rechecked.size());
+    }
+
+    private RecordContentDiffInfo submit(RecordContentDiffInfo diffInfo) throws Exception {
+        CompletableFuture<RecordContentDiffInfo> done = new CompletableFuture<>();
+        queue.submit(diffInfo, primaryColStructures, RowComparator.DEFAULT, done::complete);
+        return done.get(10, TimeUnit.SECONDS);
+    }
+
+    private Record record(long value) {
+        Record record = new Record();
+        record.setColumnValues(Lists.newArrayList(value));
+        record.setPrimaryColValues(Lists.newArrayList(Pair.of(value, id)));
+        return record;
+    }
+
+    private static ColumnStructure column() {
+        ColumnStructure column = new ColumnStructure();
+        column.setColumnName("id");
+        column.setDataType("bigint");
+        column.setColumnKey(ColumnStructure.columnKey.PRI.name());
+        column.setOrdinalPosition(1L);
+        return column;
+    }
+}
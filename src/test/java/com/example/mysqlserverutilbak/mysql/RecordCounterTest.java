@@ -0,0 +1,79 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+import static com.example.mysqlserverutilbak.mysql.MetadataLoader.*;
+import static com.example.mysqlserverutilbak.mysql.Record.*;
+import static com.example.mysqlserverutilbak.mysql.RecordCounter.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RecordCounterTest {
+
+    private final ValidateConfig config = new ValidateConfig();
+    private final DataSource sourceDataSource = mock(DataSource.class);
+    private final DataSource targetDataSource = mock(DataSource.class);
+    private final DBQueryService dbQueryService = mock(DBQueryService.class);
+    private final SchemaMetadata sourceMetadata = mock(SchemaMetadata.class);
+    private final SchemaMetadata targetMetadata = mock(SchemaMetadata.class);
+    private final RecordCounter counter = new RecordCounter();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(counter, "config", config);
+        ReflectionTestUtils.setField(counter, "sourceDataSource", sourceDataSource);
+        ReflectionTestUtils.setField(counter, "targetDataSource", targetDataSource);
+        ReflectionTestUtils.setField(counter, "DBQueryService", dbQueryService);
+
+        ColumnStructure code = new ColumnStructure();
+        code.setColumnName("code");
+        code.setDataType("varchar");
+        List<ColumnStructure> primaryColStructures = Lists.newArrayList(code);
+        when(sourceMetadata.getPrimaryColStructures("db", "t")).thenReturn(primaryColStructures);
+        // 估算值超出 estimateTolerance
+        when(sourceMetadata.getTableRows("db", "t")).thenReturn(1000L);
+        when(targetMetadata.getTableRows("db", "t")).thenReturn(500L);
+    }
+
+    @Test
+    void exactCountFailIsUnknown() {
+        // count(*) 超时返回 null
+        when(dbQueryService.getRecordCount(any(), eq("db"), eq("t"), any(), any(), anyInt())).thenReturn(null);
+
+        CountResult result = counter.count("db", "t", sourceMetadata, targetMetadata, Runnable::run).join();
+        assertTrue(result.isUnknown());
+        assertFalse(result.isExact());
+        assertEquals(1000L, result.getSourceCount());
+    }
+
+    @Test
+    void exactCountFailFallsBackToEstimateInEstimateMode() {
+        config.setEstimateCountTables(ImmutableMap.of("db", ImmutableSet.of("t")));
+        when(dbQueryService.getRecordCount(any(), eq("db"), eq("t"), any(), any(), anyInt())).thenReturn(null);
+
+        CountResult result = counter.count("db", "t", sourceMetadata, targetMetadata, Runnable::run).join();
+        assertFalse(result.isUnknown());
+        assertFalse(result.isExact());
+        assertFalse(result.isMatched());
+    }
+
+    @Test
+    void exactCountOverridesEstimate() {
+        when(dbQueryService.getRecordCount(same(sourceDataSource), eq("db"), eq("t"), any(), any(), anyInt())).thenReturn(800L);
+        when(dbQueryService.getRecordCount(same(targetDataSource), eq("db"), eq("t"), any(), any(), anyInt())).thenReturn(800L);
+
+        CountResult result = counter.count("db", "t", sourceMetadata, targetMetadata, Runnable::run).join();
+        assertTrue(result.isExact());
+        assertTrue(result.isMatched());
+        assertFalse(result.isUnknown());
+    }
+}
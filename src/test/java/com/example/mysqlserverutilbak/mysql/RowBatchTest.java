@@ -0,0 +1,70 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import com.google.common.collect.Lists;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.mysqlserverutilbak.mysql.Record.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class RowBatchTest {
+
+    @Test
+    void caseInsensitivePkMatchesOrdering() throws Exception {
+        List<ColumnStructure> primaryColStructures = Lists.newArrayList(column("utf8mb4_general_ci"));
+        RowBatch source = batch(primaryColStructures, "abc", "b");
+        RowBatch target = batch(primaryColStructures, "ABC");
+
+        assertEquals(0, source.comparePk(0, target, 0));
+        assertTrue(source.pkEquals(0, target, 0));
+        assertEquals(source.pkHash(0), target.pkHash(0));
+        // ROW 模式的主键索引与 merge-join 的判定一致
+        assertEquals(0, PkIndex.build(source, target).find(target, 0));
+        assertFalse(source.pkEquals(1, target, 0));
+    }
+
+    @Test
+    void caseSensitivePkIsByteExact() throws Exception {
+        List<ColumnStructure> primaryColStructures = Lists.newArrayList(column("utf8mb4_bin"));
+        RowBatch source = batch(primaryColStructures, "abc");
+        RowBatch target = batch(primaryColStructures, "ABC");
+
+        assertNotEquals(0, source.comparePk(0, target, 0));
+        assertFalse(source.pkEquals(0, target, 0));
+        assertEquals(-1, PkIndex.build(source, target).find(target, 0));
+    }
+
+    private static RowBatch batch(List<ColumnStructure> primaryColStructures, String... codes) throws Exception {
+        ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+        when(metaData.getColumnCount()).thenReturn(1);
+        when(metaData.getColumnType(1)).thenReturn(Types.VARCHAR);
+        when(metaData.getPrecision(1)).thenReturn(32);
+        when(metaData.getColumnLabel(1)).thenReturn("code");
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getMetaData()).thenReturn(metaData);
+        // next() 对每条记录返回 true，最后返回 false
+        Boolean[] moreRows = new Boolean[codes.length];
+        Arrays.fill(moreRows, true);
+        moreRows[codes.length - 1] = false;
+        when(rs.next()).thenReturn(true, moreRows);
+        byte[][] values = Arrays.stream(codes).map(code -> code.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+        when(rs.getBytes(1)).thenReturn(values[0], Arrays.copyOfRange(values, 1, values.length));
+        return RowBatch.fromResultSet(rs, primaryColStructures);
+    }
+
+    private static ColumnStructure column(String collationName) {
+        ColumnStructure column = new ColumnStructure();
+        column.setColumnName("code");
+        column.setDataType("varchar");
+        column.setCollationName(collationName);
+        column.setColumnKey(ColumnStructure.columnKey.PRI.name());
+        return column;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+import static com.example.mysqlserverutilbak.mysql.Record.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RowComparatorTest {
+
+    @Test
+    void numericIgnoresScaleAndType() {
+        assertTrue(RowComparator.numericEquals(new BigDecimal("1.0"), new BigDecimal("1.00")));
+        assertTrue(RowComparator.numericEquals(5L, new BigInteger("5")));
+        assertFalse(RowComparator.numericEquals(new BigDecimal("1.01"), new BigDecimal("1.0")));
+    }
+
+    @Test
+    void temporalRoundsToPrecision() {
+        Timestamp source = Timestamp.valueOf("2022-08-15 19:45:00.123456");
+        // MySQL 写入 datetime(3) 时四舍五入
+        assertTrue(RowComparator.temporalEquals(source, Timestamp.valueOf("2022-08-15 19:45:00.123"), 3));
+        assertFalse(RowComparator.temporalEquals(source, Timestamp.valueOf("2022-08-15 19:45:00.124"), 3));
+        // 进位到下一秒
+        assertTrue(RowComparator.temporalEquals(LocalDateTime.parse("2022-08-15T19:45:00.9996"),
+                LocalDateTime.parse("2022-08-15T19:45:01"), 3));
+    }
+
+    @Test
+    void caseInsensitiveOnlyWhenBothCollationsAre() {
+        ColumnStructure source = column("utf8mb4_general_ci");
+        assertEquals(RowComparator.RuleType.CASE_INSENSITIVE,
+                RowComparator.forTable(Collections.singletonList(source), Collections.singletonList(column("utf8mb4_unicode_ci"))).rule(0));
+        assertEquals(RowComparator.RuleType.EXACT,
+                RowComparator.forTable(Collections.singletonList(source), Collections.singletonList(column("utf8mb4_bin"))).rule(0));
+        assertEquals(RowComparator.RuleType.EXACT,
+                RowComparator.forTable(Collections.singletonList(column("utf8mb4_bin")), Collections.singletonList(source)).rule(0));
+    }
+
+    private static ColumnStructure column(String collationName) {
+        ColumnStructure column = new ColumnStructure();
+        column.setColumnName("name");
+        column.setDataType("varchar");
+        column.setCollationName(collationName);
+        return column;
+    }
+}
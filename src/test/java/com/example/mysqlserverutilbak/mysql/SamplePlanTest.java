@@ -0,0 +1,29 @@
+package com.example.mysqlserverutilbak.mysql;
+
+import org.junit.jupiter.api.Test;
+
+import static com.example.mysqlserverutilbak.mysql.DifferenceInfo.*;
+import static com.example.mysqlserverutilbak.mysql.SampleRecordComparator.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SamplePlanTest {
+
+    @Test
+    void sampleSizeForConfidence() {
+        // 99% 的概率发现 0.1% 的差异
+        assertEquals(4603, SamplePlan.sampleSize(0.99, 0.001));
+        assertEquals(Long.MAX_VALUE, SamplePlan.sampleSize(1, 0.001));
+    }
+
+    @Test
+    void upperBoundOfDivergence() {
+        assertEquals(2.326, SampleDiffInfo.normalQuantile(0.99), 1e-3);
+        // 没有差异时的上限即 sampleSize 对应的 divergenceRate
+        SampleDiffInfo noDiff = new SampleDiffInfo("db", "t", 1000000, 4603, 0, 0.99);
+        assertEquals(0.001, noDiff.getUpperBound(), 1e-5);
+
+        SampleDiffInfo diff = new SampleDiffInfo("db", "t", 1000000, 1000, 10, 0.99);
+        assertEquals(0.01, diff.getEstimatedRate(), 1e-9);
+        assertTrue(diff.getUpperBound() > 0.01 && diff.getUpperBound() < 0.03);
+    }
+}
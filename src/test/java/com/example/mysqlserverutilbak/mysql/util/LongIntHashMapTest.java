@@ -0,0 +1,34 @@
+package com.example.mysqlserverutilbak.mysql.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LongIntHashMapTest {
+
+    @Test
+    void putAndGetAcrossRehash() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        for (int i = 0; i < 10000; i++) {
+            map.put(i * 31L - 5000, i);
+        }
+        assertEquals(10000, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, map.get(i * 31L - 5000));
+        }
+        assertEquals(-1, map.get(1L));
+    }
+
+    @Test
+    void putOverridesExistingKey() {
+        LongIntHashMap map = new LongIntHashMap(16);
+        map.put(0L, 1);
+        map.put(0L, 2);
+        map.put(Long.MIN_VALUE, 3);
+        assertEquals(2, map.size());
+        assertEquals(2, map.get(0L));
+        assertEquals(3, map.get(Long.MIN_VALUE));
+        map.clear();
+        assertEquals(-1, map.get(0L));
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.mysqlserverutilbak.mysql.util;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SqlSessionTest {
+
+    @Test
+    void queriesFailAfterSnapshotIsLost() throws Exception {
+        DataSource dataSource = mock(DataSource.class);
+        Connection conn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        when(dataSource.getConnection()).thenReturn(conn);
+        when(conn.createStatement()).thenReturn(mock(Statement.class));
+        when(conn.prepareStatement(anyString())).thenReturn(ps);
+        ResultSet rs = mock(ResultSet.class);
+        when(ps.executeQuery()).thenThrow(new SQLException("connection reset")).thenReturn(rs);
+
+        try (SqlSession session = SqlSession.open(dataSource)) {
+            assertTrue(session.startSnapshot());
+            assertNull(session.executeQuery("SELECT 1", result -> 1));
+            // 快照已随失败的连接结束，不在新的自动提交连接上继续查询
+            assertNull(session.executeQuery("SELECT 1", result -> 1));
+        }
+        verify(dataSource, times(1)).getConnection();
+    }
+
+    @Test
+    void queriesRetryWithoutSnapshot() throws Exception {
+        DataSource dataSource = mock(DataSource.class);
+        Connection conn = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        when(dataSource.getConnection()).thenReturn(conn);
+        when(conn.prepareStatement(anyString())).thenReturn(ps);
+        ResultSet rs = mock(ResultSet.class);
+        when(ps.executeQuery()).thenThrow(new SQLException("connection reset")).thenReturn(rs);
+
+        try (SqlSession session = SqlSession.open(dataSource)) {
+            assertNull(session.executeQuery("SELECT 1", result -> 1));
+            assertEquals(Integer.valueOf(1), session.executeQuery("SELECT 1", result -> 1));
+        }
+        verify(dataSource, times(2)).getConnection();
+    }
+}